@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.apache.spark.api.java.function.Function;
+
+import java.util.Set;
+
+/**
+ * Filters the records whose key belongs to one of the given backfill chunks.
+ */
+public class ChunkFilterFunction implements Function<StructuredRecord, Boolean> {
+  private final String keyField;
+  private final int numChunks;
+  private final Set<Integer> chunks;
+
+  public ChunkFilterFunction(String keyField, int numChunks, Set<Integer> chunks) {
+    this.keyField = keyField;
+    this.numChunks = numChunks;
+    this.chunks = chunks;
+  }
+
+  @Override
+  public Boolean call(StructuredRecord record) {
+    return chunks.contains(SCD2Backfill.getChunk(record.get(keyField), numChunks));
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaRDD;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Partitions the records by ranges of keys, so that the partitions have non-overlapping key ranges. All the records
+ * of a key are in the same partition, null keys are in the first partition. The ranges are computed from a sample of
+ * the keys, like the range partitioner of spark, which can not be used since it would split the records of a key
+ * across partitions.
+ */
+public class KeyRangePartitioner extends Partitioner {
+  // number of keys to sample for each partition
+  private static final int SAMPLE_SIZE_PER_PARTITION = 20;
+  private final Comparable[] bounds;
+
+  /**
+   * Creates the partitioner with the given upper bounds of the partitions, which must be sorted.
+   */
+  public KeyRangePartitioner(Comparable[] bounds) {
+    this.bounds = bounds;
+  }
+
+  /**
+   * Creates the partitioner from a sample of the keys of the given records.
+   */
+  public static KeyRangePartitioner create(JavaRDD<StructuredRecord> records, String keyField, int numPartitions) {
+    // the seed is fixed, so that a retried run computes the same ranges
+    List<Comparable> sample = records.map(record -> (Comparable) record.get(keyField))
+      .takeSample(false, numPartitions * SAMPLE_SIZE_PER_PARTITION, 0L);
+    return new KeyRangePartitioner(getBounds(sample, numPartitions));
+  }
+
+  /**
+   * Returns the upper bounds of the partitions from the sampled keys. There are less bounds if the sample does not
+   * have enough distinct keys.
+   */
+  @SuppressWarnings("unchecked")
+  static Comparable[] getBounds(Collection<Comparable> sample, int numPartitions) {
+    List<Comparable> sorted = sample.stream().filter(Objects::nonNull).sorted().collect(Collectors.toList());
+    List<Comparable> bounds = new ArrayList<>();
+    for (int i = 1; i < numPartitions && !sorted.isEmpty(); i++) {
+      Comparable bound = sorted.get(i * sorted.size() / numPartitions);
+      if (bounds.isEmpty() || bound.compareTo(bounds.get(bounds.size() - 1)) > 0) {
+        bounds.add(bound);
+      }
+    }
+    return bounds.toArray(new Comparable[0]);
+  }
+
+  @Override
+  public int numPartitions() {
+    return bounds.length + 1;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public int getPartition(Object key) {
+    Comparable value = ((SCD2Key) key).getKey();
+    if (value == null) {
+      return 0;
+    }
+
+    // the partition is the index of the first bound that is not less than the key
+    int low = 0;
+    int high = bounds.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (bounds[mid].compareTo(value) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
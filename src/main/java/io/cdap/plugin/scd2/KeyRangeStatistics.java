@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import javax.annotation.Nullable;
+
+/**
+ * The key range statistics of a partition of the output, which let readers skip the partitions that can not contain
+ * a key. The statistics of each partition are written as a properties file to the directory of the run, under the
+ * statistics directory. The partition index only identifies an output file if the sink writes one file per partition.
+ */
+public class KeyRangeStatistics {
+  private static final String PARTITION_PREFIX = "partition-";
+  private static final String RUN_PREFIX = "run-";
+  private final String keyField;
+  private final String startDateField;
+  private final String endDateField;
+  private Comparable minKey;
+  private Comparable maxKey;
+  private long minStartDate = Long.MAX_VALUE;
+  private long maxStartDate = Long.MIN_VALUE;
+  private long rowCount;
+  private long activeRowCount;
+
+  public KeyRangeStatistics(String keyField, String startDateField, String endDateField) {
+    this.keyField = keyField;
+    this.startDateField = startDateField;
+    this.endDateField = endDateField;
+  }
+
+  /**
+   * Adds the given output record to the statistics.
+   */
+  @SuppressWarnings("unchecked")
+  public void add(StructuredRecord record) {
+    Comparable key = record.get(keyField);
+    if (key != null) {
+      minKey = minKey == null || key.compareTo(minKey) < 0 ? key : minKey;
+      maxKey = maxKey == null || key.compareTo(maxKey) > 0 ? key : maxKey;
+    }
+    long startDate = record.get(startDateField);
+    minStartDate = Math.min(minStartDate, startDate);
+    maxStartDate = Math.max(maxStartDate, startDate);
+    rowCount++;
+    Long endDate = record.get(endDateField);
+    if (endDate != null && endDate == SCD2RecordIterator.ACTIVE_TS) {
+      activeRowCount++;
+    }
+  }
+
+  @Nullable
+  public Comparable getMinKey() {
+    return minKey;
+  }
+
+  @Nullable
+  public Comparable getMaxKey() {
+    return maxKey;
+  }
+
+  public long getMinStartDate() {
+    return minStartDate;
+  }
+
+  public long getMaxStartDate() {
+    return maxStartDate;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public long getActiveRowCount() {
+    return activeRowCount;
+  }
+
+  /**
+   * Returns the statistics as properties. The keys are absent if the partition only has null keys, and the start
+   * dates are absent if the partition is empty. Bytes keys are written as lower case hex, the other keys as their
+   * string value.
+   */
+  public Properties toProperties(int partition) {
+    Properties properties = new Properties();
+    properties.setProperty("partition", String.valueOf(partition));
+    if (minKey != null) {
+      properties.setProperty("minKey", encodeKey(minKey));
+      properties.setProperty("maxKey", encodeKey(maxKey));
+    }
+    if (rowCount > 0) {
+      properties.setProperty("minStartDate", String.valueOf(minStartDate));
+      properties.setProperty("maxStartDate", String.valueOf(maxStartDate));
+    }
+    properties.setProperty("rowCount", String.valueOf(rowCount));
+    properties.setProperty("activeRowCount", String.valueOf(activeRowCount));
+    return properties;
+  }
+
+  private static String encodeKey(Object key) {
+    if (key instanceof ByteBuffer) {
+      ByteBuffer buffer = ((ByteBuffer) key).duplicate();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return toHex(bytes);
+    }
+    if (key instanceof byte[]) {
+      return toHex((byte[]) key);
+    }
+    return key.toString();
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Writes the statistics of the given partition to the directory of the run, replacing the statistics written by
+   * a previous attempt of the partition.
+   */
+  public void write(String runPath, int partition) throws IOException {
+    Path path = new Path(runPath, String.format("%s%05d", PARTITION_PREFIX, partition));
+    FileSystem fs = path.getFileSystem(new Configuration());
+    try (OutputStream os = fs.create(path, true)) {
+      toProperties(partition).store(os, "SCD2 key range statistics");
+    }
+  }
+
+  /**
+   * Returns the directory of the statistics of the given run.
+   */
+  public static String getRunPath(String statisticsPath, String runId) {
+    return new Path(statisticsPath, RUN_PREFIX + runId).toString();
+  }
+
+  /**
+   * Deletes the statistics of the given run.
+   */
+  public static void delete(String runPath) throws IOException {
+    Path path = new Path(runPath);
+    FileSystem fs = path.getFileSystem(new Configuration());
+    if (fs.exists(path)) {
+      fs.delete(path, true);
+    }
+  }
+
+  /**
+   * Deletes the statistics of all the runs except the given one, once the output of the given run replaced theirs.
+   */
+  public static void deleteOtherRuns(String statisticsPath, String runId) throws IOException {
+    Path path = new Path(statisticsPath);
+    FileSystem fs = path.getFileSystem(new Configuration());
+    if (!fs.exists(path)) {
+      return;
+    }
+    String runName = RUN_PREFIX + runId;
+    for (FileStatus status : fs.listStatus(path)) {
+      String name = status.getPath().getName();
+      if (name.startsWith(RUN_PREFIX) && !name.equals(runName)) {
+        fs.delete(status.getPath(), true);
+      }
+    }
+  }
+}
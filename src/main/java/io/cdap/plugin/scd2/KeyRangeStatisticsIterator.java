@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import com.google.common.collect.AbstractIterator;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Collects the key range statistics of the records of a partition, and writes them once all the records are read.
+ */
+public class KeyRangeStatisticsIterator extends AbstractIterator<StructuredRecord> {
+  private final Iterator<StructuredRecord> records;
+  private final KeyRangeStatistics statistics;
+  private final String runPath;
+  private final int partition;
+
+  public KeyRangeStatisticsIterator(Iterator<StructuredRecord> records, SCD2Plugin.Conf conf, String runPath,
+                                    int partition) {
+    this.records = records;
+    this.statistics = new KeyRangeStatistics(conf.getKey(), conf.getStartDateField(), conf.getEndDateField());
+    this.runPath = runPath;
+    this.partition = partition;
+  }
+
+  @Override
+  protected StructuredRecord computeNext() {
+    if (!records.hasNext()) {
+      // empty partitions have no statistics, readers skip them anyway
+      if (statistics.getRowCount() > 0) {
+        try {
+          statistics.write(runPath, partition);
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to write the key range statistics of partition " + partition, e);
+        }
+      }
+      return endOfData();
+    }
+
+    StructuredRecord record = records.next();
+    statistics.add(record);
+    return record;
+  }
+}
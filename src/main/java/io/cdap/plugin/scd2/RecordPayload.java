@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Hashes and compares the payload of records, which is all the fields except the ones computed by the plugin.
+ */
+public final class RecordPayload {
+
+  private RecordPayload() {
+  }
+
+  /**
+   * Returns the hash of the non null fields of the record that are not excluded. The hash does not depend on the
+   * order of the fields.
+   */
+  public static int hash(StructuredRecord record, Set<String> excludedFields) {
+    int hash = 0;
+    for (Schema.Field field : record.getSchema().getFields()) {
+      String fieldName = field.getName();
+      Object value = record.get(fieldName);
+      if (value == null || excludedFields.contains(fieldName)) {
+        continue;
+      }
+      int valueHash = value instanceof byte[] ? Arrays.hashCode((byte[]) value) : value.hashCode();
+      hash += 31 * fieldName.hashCode() + valueHash;
+    }
+    return hash;
+  }
+
+  /**
+   * Returns whether the two records have the same values for all the fields that are not excluded. The records can
+   * have different schemas, a field that is missing from a record is treated as null, like in {@link #hash}.
+   */
+  public static boolean equals(StructuredRecord record, StructuredRecord other, Set<String> excludedFields) {
+    return containsValues(record, other, excludedFields) && containsValues(other, record, excludedFields);
+  }
+
+  /**
+   * Returns whether the other record has the same values for all the fields of the record that are not excluded.
+   */
+  private static boolean containsValues(StructuredRecord record, StructuredRecord other, Set<String> excludedFields) {
+    for (Schema.Field field : record.getSchema().getFields()) {
+      String fieldName = field.getName();
+      if (excludedFields.contains(fieldName)) {
+        continue;
+      }
+      Object value = record.get(fieldName);
+      Object otherValue = other.getSchema().getField(fieldName) == null ? null : other.get(fieldName);
+      if (value instanceof byte[] && otherValue instanceof byte[]) {
+        if (!Arrays.equals((byte[]) value, (byte[]) otherValue)) {
+          return false;
+        }
+      } else if (!Objects.equals(value, otherValue)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
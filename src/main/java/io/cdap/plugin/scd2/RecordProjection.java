@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Maps the fields of an input schema to the fields of the output schema. A projection is computed once for each
+ * distinct input schema, so records coming from inputs with different but compatible schemas can be reshaped
+ * without looking up fields by schema on every record.
+ */
+public class RecordProjection {
+  private final Schema outputSchema;
+  // input field name for each output field, null if the input schema does not contain the field
+  private final String[] inputFields;
+
+  public RecordProjection(Schema inputSchema, Schema outputSchema) {
+    this.outputSchema = outputSchema;
+    List<Schema.Field> outputFields = outputSchema.getFields();
+    this.inputFields = new String[outputFields.size()];
+
+    for (Schema.Field field : inputSchema.getFields()) {
+      if (outputSchema.getField(field.getName()) == null) {
+        throw new IllegalArgumentException(
+          String.format("Field '%s' from input schema '%s' does not exist in the output schema.",
+                        field.getName(), inputSchema.getRecordName()));
+      }
+    }
+
+    for (int i = 0; i < outputFields.size(); i++) {
+      String fieldName = outputFields.get(i).getName();
+      // fields computed by the plugin, like the end date, do not need to exist in the input
+      if (inputSchema.getField(fieldName) != null) {
+        inputFields[i] = fieldName;
+      }
+    }
+  }
+
+  public Schema getOutputSchema() {
+    return outputSchema;
+  }
+
+  /**
+   * Returns the value of the output field at the given position, or null if the input does not have that field.
+   */
+  @Nullable
+  public Object get(StructuredRecord record, int index) {
+    String fieldName = inputFields[index];
+    return fieldName == null ? null : record.get(fieldName);
+  }
+}
@@ -20,21 +20,31 @@ import io.cdap.cdap.api.data.format.StructuredRecord;
 import org.apache.spark.api.java.function.PairFunction;
 import scala.Tuple2;
 
+import java.util.Set;
+import javax.annotation.Nullable;
+
 /**
- * Maps a record to a key field plus the record.
+ * Maps a record to a key field plus the record. If the fields to exclude from the payload are given, the key also
+ * contains the hash of the other fields.
  */
 public class RecordToKeyRecordPairFunction implements PairFunction<StructuredRecord, SCD2Key, StructuredRecord> {
   private final String keyField;
   private final String startDateField;
+  private final Set<String> excludedFields;
 
   public RecordToKeyRecordPairFunction(String keyField, String startDateField) {
+    this(keyField, startDateField, null);
+  }
+
+  public RecordToKeyRecordPairFunction(String keyField, String startDateField, @Nullable Set<String> excludedFields) {
     this.keyField = keyField;
     this.startDateField = startDateField;
+    this.excludedFields = excludedFields;
   }
 
   @Override
   public Tuple2<SCD2Key, StructuredRecord> call(StructuredRecord record) {
-    return new Tuple2<>(new SCD2Key(record.get(keyField), record.get(startDateField)), record);
+    return new Tuple2<>(SCD2Key.of(record, keyField, startDateField, excludedFields), record);
   }
 }
 
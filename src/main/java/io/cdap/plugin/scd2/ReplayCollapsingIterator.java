@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops the replays of a record from the sorted records. A replay has the same key, start date and payload as another
+ * record. Records with the same start date are sorted by payload hash, so the replays of a record are in the same run
+ * of records with the same key, start date and payload hash. The whole run is compared, since different payloads with
+ * the same hash can be in any order within it. Of the copies of a record, the one with the most computed fields set
+ * is kept.
+ */
+public class ReplayCollapsingIterator extends AbstractIterator<Map.Entry<SCD2Key, StructuredRecord>> {
+  private final PeekingIterator<Map.Entry<SCD2Key, StructuredRecord>> records;
+  private final Set<String> excludedFields;
+  // distinct payloads of the current run, usually only one
+  private final List<Map.Entry<SCD2Key, StructuredRecord>> distinct;
+  private Iterator<Map.Entry<SCD2Key, StructuredRecord>> pending;
+
+  public ReplayCollapsingIterator(Iterator<Map.Entry<SCD2Key, StructuredRecord>> records, Set<String> excludedFields) {
+    this.records = Iterators.peekingIterator(records);
+    this.excludedFields = excludedFields;
+    this.distinct = new ArrayList<>();
+  }
+
+  @Override
+  protected Map.Entry<SCD2Key, StructuredRecord> computeNext() {
+    if (pending != null && pending.hasNext()) {
+      return pending.next();
+    }
+    if (!records.hasNext()) {
+      return endOfData();
+    }
+
+    Map.Entry<SCD2Key, StructuredRecord> first = records.next();
+    if (!records.hasNext() || !isSameRun(first.getKey(), records.peek().getKey())) {
+      return first;
+    }
+
+    distinct.clear();
+    distinct.add(first);
+    while (records.hasNext() && isSameRun(first.getKey(), records.peek().getKey())) {
+      add(records.next());
+    }
+    pending = new ArrayList<>(distinct).iterator();
+    return pending.next();
+  }
+
+  private void add(Map.Entry<SCD2Key, StructuredRecord> record) {
+    for (int i = 0; i < distinct.size(); i++) {
+      Map.Entry<SCD2Key, StructuredRecord> kept = distinct.get(i);
+      if (RecordPayload.equals(kept.getValue(), record.getValue(), excludedFields)) {
+        // keep the copy with the most computed fields, like the copy from the target that has the surrogate key
+        if (countExcluded(record.getValue()) > countExcluded(kept.getValue())) {
+          distinct.set(i, record);
+        }
+        return;
+      }
+    }
+    distinct.add(record);
+  }
+
+  private int countExcluded(StructuredRecord record) {
+    int count = 0;
+    for (String fieldName : excludedFields) {
+      if (record.getSchema().getField(fieldName) != null && record.get(fieldName) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean isSameRun(SCD2Key prev, SCD2Key cur) {
+    return prev.equals(cur) && prev.getStartDate() == cur.getStartDate() &&
+      prev.getPayloadHash() == cur.getPayloadHash();
+  }
+}
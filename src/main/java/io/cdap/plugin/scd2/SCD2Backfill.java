@@ -0,0 +1,237 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Splits the key space into hash chunks for backfills, and keeps track of the chunks that are done in a checkpoint
+ * directory. Each run processes the next chunks that are not done yet, so the shuffle of a run is bounded by the size
+ * of its chunks, and a failed run only has to redo its own chunks. The chunks of a run are claimed once when the run
+ * starts and recorded under its run id, so that only the chunks it actually processed are marked as done. Each chunk
+ * is claimed by creating its claim file, which fails if another run already claimed it, so overlapping runs never
+ * process the same chunk. The number of chunks is recorded as well, since the chunk of a key depends on it.
+ */
+public class SCD2Backfill {
+  private static final String CHUNK_PREFIX = "chunk-";
+  private static final String CLAIM_PREFIX = "claim-";
+  private static final String RUN_PREFIX = "run-";
+  private static final String NUM_CHUNKS_FILE = "num-chunks";
+  private final Path checkpointPath;
+  private final int numChunks;
+  private final int chunksPerRun;
+
+  public SCD2Backfill(String checkpointPath, int numChunks, int chunksPerRun) {
+    this.checkpointPath = new Path(checkpointPath);
+    this.numChunks = numChunks;
+    this.chunksPerRun = chunksPerRun;
+  }
+
+  public int getNumChunks() {
+    return numChunks;
+  }
+
+  /**
+   * Returns the chunk of the given key.
+   */
+  public static int getChunk(Object key, int numChunks) {
+    // mix the hash so that the chunks are not correlated with the hash partitions used to sort the records
+    int hash = Objects.hashCode(key);
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return Math.floorMod(hash, numChunks);
+  }
+
+  /**
+   * Returns the chunks to process in this run, which are the first chunks that are not done yet.
+   */
+  public Set<Integer> getPendingChunks() throws IOException {
+    Set<Integer> done = getDoneChunks();
+    Set<Integer> pending = new TreeSet<>();
+    for (int chunk = 0; chunk < numChunks && pending.size() < chunksPerRun; chunk++) {
+      if (!done.contains(chunk)) {
+        pending.add(chunk);
+      }
+    }
+    return pending;
+  }
+
+  /**
+   * Claims the chunks of a new run, which are the first pending chunks that no other run has claimed, and records
+   * them under a new run id.
+   *
+   * @return the id of the run
+   * @throws IllegalArgumentException if the backfill was started with a different number of chunks
+   */
+  public String startRun() throws IOException {
+    String runId = UUID.randomUUID().toString();
+    FileSystem fs = checkpointPath.getFileSystem(new Configuration());
+    fs.mkdirs(checkpointPath);
+    checkNumChunks(fs);
+
+    Set<Integer> done = getDoneChunks();
+    Set<Integer> chunks = new TreeSet<>();
+    for (int chunk = 0; chunk < numChunks && chunks.size() < chunksPerRun; chunk++) {
+      if (!done.contains(chunk) && claim(fs, chunk, runId)) {
+        chunks.add(chunk);
+      }
+    }
+    try (OutputStream os = fs.create(getRunPath(runId), false)) {
+      for (int chunk : chunks) {
+        os.write((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return runId;
+  }
+
+  /**
+   * Returns the chunks picked for the given run.
+   */
+  public Set<Integer> getRunChunks(String runId) throws IOException {
+    FileSystem fs = checkpointPath.getFileSystem(new Configuration());
+    Set<Integer> chunks = new TreeSet<>();
+    try (BufferedReader reader = new BufferedReader(
+      new InputStreamReader(fs.open(getRunPath(runId)), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          chunks.add(Integer.parseInt(line));
+        }
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * Finishes the given run. The chunks of the run are recorded as done if it succeeded, so that the next runs skip
+   * them, otherwise the next runs process them again. The claims of the run are released either way.
+   *
+   * @return the chunks that are marked as done
+   */
+  public Set<Integer> finishRun(String runId, boolean succeeded) throws IOException {
+    Set<Integer> chunks = getRunChunks(runId);
+    // the chunks are marked as done before they are released, so that no other run can claim them in between
+    if (succeeded) {
+      markDone(chunks);
+    }
+    FileSystem fs = checkpointPath.getFileSystem(new Configuration());
+    for (int chunk : chunks) {
+      fs.delete(getClaimPath(chunk), false);
+    }
+    fs.delete(getRunPath(runId), false);
+    return succeeded ? chunks : new TreeSet<>();
+  }
+
+  /**
+   * Records the given chunks as done, so that the next runs skip them.
+   */
+  public void markDone(Collection<Integer> chunks) throws IOException {
+    FileSystem fs = checkpointPath.getFileSystem(new Configuration());
+    fs.mkdirs(checkpointPath);
+    for (int chunk : chunks) {
+      fs.createNewFile(new Path(checkpointPath, CHUNK_PREFIX + chunk));
+    }
+  }
+
+  private Path getRunPath(String runId) {
+    return new Path(checkpointPath, RUN_PREFIX + runId);
+  }
+
+  private Path getClaimPath(int chunk) {
+    return new Path(checkpointPath, CLAIM_PREFIX + chunk);
+  }
+
+  /**
+   * Claims the given chunk for the given run, the claim file holds the run id.
+   *
+   * @return whether the chunk is claimed, false if another run already claimed it
+   */
+  private boolean claim(FileSystem fs, int chunk, String runId) throws IOException {
+    try (OutputStream os = fs.create(getClaimPath(chunk), false)) {
+      os.write(runId.getBytes(StandardCharsets.UTF_8));
+      return true;
+    } catch (FileAlreadyExistsException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Records the number of chunks when the backfill starts, and checks that the next runs use the same number, since
+   * the chunks that are done would otherwise contain different keys.
+   */
+  private void checkNumChunks(FileSystem fs) throws IOException {
+    Path path = new Path(checkpointPath, NUM_CHUNKS_FILE);
+    try (OutputStream os = fs.create(path, false)) {
+      os.write(Integer.toString(numChunks).getBytes(StandardCharsets.UTF_8));
+      return;
+    } catch (FileAlreadyExistsException e) {
+      // the backfill is already started, check below
+    }
+
+    int recorded;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(path), StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      recorded = line == null ? numChunks : Integer.parseInt(line.trim());
+    }
+    if (recorded != numChunks) {
+      throw new IllegalArgumentException(
+        String.format("The backfill in checkpoint path '%s' was started with %d chunks, but %d chunks are " +
+                        "configured. Use the same number of chunks, or delete the checkpoint path to start a new " +
+                        "backfill.", checkpointPath, recorded, numChunks));
+    }
+  }
+
+  private Set<Integer> getDoneChunks() throws IOException {
+    Set<Integer> done = new HashSet<>();
+    FileSystem fs = checkpointPath.getFileSystem(new Configuration());
+    if (!fs.exists(checkpointPath)) {
+      return done;
+    }
+
+    for (FileStatus status : fs.listStatus(checkpointPath)) {
+      String name = status.getPath().getName();
+      if (!name.startsWith(CHUNK_PREFIX)) {
+        continue;
+      }
+      try {
+        done.add(Integer.parseInt(name.substring(CHUNK_PREFIX.length())));
+      } catch (NumberFormatException e) {
+        // not a chunk marker, ignore it
+      }
+    }
+    return done;
+  }
+}
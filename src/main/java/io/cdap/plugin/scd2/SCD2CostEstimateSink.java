@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageConfigurer;
+import io.cdap.cdap.etl.api.batch.SparkExecutionPluginContext;
+import io.cdap.cdap.etl.api.batch.SparkPluginContext;
+import io.cdap.cdap.etl.api.batch.SparkSink;
+import org.apache.spark.api.java.JavaRDD;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Spark sink that estimates the cost of running the scd2 plugin on its input, and logs the estimate instead of
+ * processing the records. It takes the same configuration as the scd2 plugin, and is used in place of the scd2 stage
+ * and its sinks, so that nothing is written and the run succeeds.
+ */
+@Name("SCD2CostEstimate")
+@Plugin(type = SparkSink.PLUGIN_TYPE)
+public class SCD2CostEstimateSink extends SparkSink<StructuredRecord> {
+  private final SCD2Plugin.Conf conf;
+
+  public SCD2CostEstimateSink(SCD2Plugin.Conf conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+    StageConfigurer stageConfigurer = pipelineConfigurer.getStageConfigurer();
+    FailureCollector failureCollector = stageConfigurer.getFailureCollector();
+    conf.validate(stageConfigurer.getInputSchemas().values(), failureCollector);
+    failureCollector.getOrThrowException();
+  }
+
+  @Override
+  public void prepareRun(SparkPluginContext context) {
+    FailureCollector failureCollector = context.getFailureCollector();
+    conf.validate(context.getInputSchemas().values(), failureCollector);
+    failureCollector.getOrThrowException();
+  }
+
+  @Override
+  public void run(SparkExecutionPluginContext context, JavaRDD<StructuredRecord> input) throws IOException {
+    SCD2Backfill backfill = conf.getBackfill();
+    // the estimate is for the chunks the next backfill run would claim, they are only read and not claimed
+    Set<Integer> backfillChunks = backfill == null ? null : backfill.getPendingChunks();
+    new SCD2Processor(conf, null, 0L, backfillChunks, null).estimate(input);
+  }
+}
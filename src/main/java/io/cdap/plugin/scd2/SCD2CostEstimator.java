@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the cost of a run from samples of the input, without running the shuffle. The estimates are based on two
+ * samples: the keys of a uniform sample of the records, which finds the heavy keys, and all the records of a sample
+ * of the keys, which gives the versions per key and the records removed by the deduplication.
+ */
+public class SCD2CostEstimator {
+  // target size of the shuffle data of a partition
+  static final long TARGET_PARTITION_BYTES = 128L * 1024 * 1024;
+  // size of the start date and the payload hash of the shuffle key
+  private static final int KEY_OVERHEAD_BYTES = 12;
+  private final SCD2Plugin.Conf conf;
+  private final int numHeavyKeys;
+
+  public SCD2CostEstimator(SCD2Plugin.Conf conf, int numHeavyKeys) {
+    this.conf = conf;
+    this.numHeavyKeys = numHeavyKeys;
+  }
+
+  /**
+   * Estimates the cost of a run.
+   *
+   * @param totalRecords the number of input records
+   * @param keySample the keys of a uniform sample of the input records
+   * @param recordSample all the input records of a sample of the keys
+   */
+  public Estimate estimate(long totalRecords, List<?> keySample, List<StructuredRecord> recordSample) {
+    long sampleBytes = 0L;
+    Map<Object, Integer> versions = new HashMap<>();
+    for (StructuredRecord record : recordSample) {
+      Object key = record.get(conf.getKey());
+      sampleBytes += estimateSize(key) + KEY_OVERHEAD_BYTES + estimateSize(record);
+      versions.merge(key, 1, Integer::sum);
+    }
+    long recordBytes = recordSample.isEmpty() ? 0L : sampleBytes / recordSample.size();
+    long shuffleBytes = recordBytes * totalRecords;
+
+    List<Integer> versionCounts = new ArrayList<>(versions.values());
+    Collections.sort(versionCounts);
+
+    // run the sampled keys through the engine, all the versions of a key are in the sample
+    double dedupRatio = recordSample.isEmpty() ? 0d :
+      1d - (double) SCD2Engine.process(recordSample, conf).size() / recordSample.size();
+
+    Map<Object, Long> heavyKeys = new LinkedHashMap<>();
+    if (!keySample.isEmpty()) {
+      Map<Object, Long> counts = new HashMap<>();
+      for (Object key : keySample) {
+        counts.merge(key, 1L, Long::sum);
+      }
+      List<Map.Entry<Object, Long>> sorted = new ArrayList<>(counts.entrySet());
+      sorted.sort((e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+      for (Map.Entry<Object, Long> entry : sorted.subList(0, Math.min(numHeavyKeys, sorted.size()))) {
+        heavyKeys.put(entry.getKey(), entry.getValue() * totalRecords / keySample.size());
+      }
+    }
+
+    int recommendedPartitions = (int) Math.min(Integer.MAX_VALUE,
+                                               Math.max(1L, (shuffleBytes - 1) / TARGET_PARTITION_BYTES + 1));
+    return new Estimate(totalRecords, recordBytes, shuffleBytes, heavyKeys, percentile(versionCounts, 0.5d),
+                        percentile(versionCounts, 0.9d), percentile(versionCounts, 0.99d),
+                        percentile(versionCounts, 1d), dedupRatio, recommendedPartitions);
+  }
+
+  private static int percentile(List<Integer> sorted, double percentile) {
+    if (sorted.isEmpty()) {
+      return 0;
+    }
+    return sorted.get((int) Math.ceil(percentile * sorted.size()) - 1);
+  }
+
+  /**
+   * Returns the approximate serialized size of the given value in bytes.
+   */
+  static long estimateSize(Object value) {
+    if (value == null || value instanceof Boolean) {
+      return 1L;
+    }
+    if (value instanceof Integer || value instanceof Float) {
+      return 4L;
+    }
+    if (value instanceof Long || value instanceof Double) {
+      return 8L;
+    }
+    if (value instanceof String) {
+      return 4L + ((String) value).getBytes(StandardCharsets.UTF_8).length;
+    }
+    if (value instanceof byte[]) {
+      return 4L + ((byte[]) value).length;
+    }
+    if (value instanceof ByteBuffer) {
+      return 4L + ((ByteBuffer) value).remaining();
+    }
+    if (value instanceof StructuredRecord) {
+      StructuredRecord record = (StructuredRecord) value;
+      long size = 0L;
+      for (Schema.Field field : record.getSchema().getFields()) {
+        size += estimateSize(record.get(field.getName()));
+      }
+      return size;
+    }
+    if (value instanceof Collection) {
+      long size = 4L;
+      for (Object element : (Collection<?>) value) {
+        size += estimateSize(element);
+      }
+      return size;
+    }
+    if (value instanceof Map) {
+      long size = 4L;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+      }
+      return size;
+    }
+    return 4L + value.toString().length();
+  }
+
+  /**
+   * The estimated cost of a run.
+   */
+  public static class Estimate {
+    private final long totalRecords;
+    private final long recordBytes;
+    private final long shuffleBytes;
+    private final Map<Object, Long> heavyKeys;
+    private final int medianVersions;
+    private final int p90Versions;
+    private final int p99Versions;
+    private final int maxVersions;
+    private final double dedupRatio;
+    private final int recommendedPartitions;
+
+    Estimate(long totalRecords, long recordBytes, long shuffleBytes, Map<Object, Long> heavyKeys,
+             int medianVersions, int p90Versions, int p99Versions, int maxVersions, double dedupRatio,
+             int recommendedPartitions) {
+      this.totalRecords = totalRecords;
+      this.recordBytes = recordBytes;
+      this.shuffleBytes = shuffleBytes;
+      this.heavyKeys = heavyKeys;
+      this.medianVersions = medianVersions;
+      this.p90Versions = p90Versions;
+      this.p99Versions = p99Versions;
+      this.maxVersions = maxVersions;
+      this.dedupRatio = dedupRatio;
+      this.recommendedPartitions = recommendedPartitions;
+    }
+
+    public long getTotalRecords() {
+      return totalRecords;
+    }
+
+    public long getShuffleBytes() {
+      return shuffleBytes;
+    }
+
+    /**
+     * Returns the heaviest keys with their estimated number of records, the heaviest key first.
+     */
+    public Map<Object, Long> getHeavyKeys() {
+      return heavyKeys;
+    }
+
+    public int getMedianVersions() {
+      return medianVersions;
+    }
+
+    public int getP90Versions() {
+      return p90Versions;
+    }
+
+    public int getP99Versions() {
+      return p99Versions;
+    }
+
+    public int getMaxVersions() {
+      return maxVersions;
+    }
+
+    /**
+     * Returns the fraction of the input records that are removed by the deduplication and the collapse of replays.
+     */
+    public double getDedupRatio() {
+      return dedupRatio;
+    }
+
+    public int getRecommendedPartitions() {
+      return recommendedPartitions;
+    }
+
+    /**
+     * Returns whether the heaviest key alone has more shuffle data than the target size of a partition, which more
+     * partitions can not fix.
+     */
+    public boolean isSkewed() {
+      return !heavyKeys.isEmpty() && heavyKeys.values().iterator().next() * recordBytes > TARGET_PARTITION_BYTES;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("input records: %d, estimated shuffle bytes: %d, heavy keys (estimated records): %s, " +
+                             "versions per key (median/p90/p99/max): %d/%d/%d/%d, dedup ratio: %.3f, " +
+                             "recommended number of partitions: %d",
+                           totalRecords, shuffleBytes, heavyKeys, medianVersions, p90Versions, p99Versions,
+                           maxVersions, dedupRatio, recommendedPartitions);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import com.google.common.collect.Iterators;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.annotation.Nullable;
+
+/**
+ * The scd2 engine for records in memory, it does not depend on spark. The records are sorted by key and start date,
+ * split into chunks at key boundaries and each chunk is processed by a {@link SCD2RecordIterator} on a fork join
+ * pool. The backfill settings of the conf are not used, all the records given are processed.
+ */
+public final class SCD2Engine {
+  // number of chunks per thread of the pool, so that a chunk with a heavy key does not leave the other threads idle
+  private static final int CHUNKS_PER_THREAD = 4;
+  // surrogate keys of the calls without an explicit run start time, shared by all the engines of the jvm
+  private static final SurrogateKeyAllocator KEY_ALLOCATOR = new SurrogateKeyAllocator();
+  private final SCD2Plugin.Conf conf;
+  private final ForkJoinPool pool;
+
+  public SCD2Engine(SCD2Plugin.Conf conf) {
+    this(conf, ForkJoinPool.commonPool());
+  }
+
+  public SCD2Engine(SCD2Plugin.Conf conf, ForkJoinPool pool) {
+    this.conf = conf;
+    this.pool = pool;
+  }
+
+  /**
+   * Processes the records with the common fork join pool.
+   */
+  public static List<StructuredRecord> process(Iterable<StructuredRecord> records, SCD2Plugin.Conf conf) {
+    return new SCD2Engine(conf).process(records);
+  }
+
+  /**
+   * Processes the records. The surrogate keys of all the calls in this jvm come from one allocator, so calls in quick
+   * succession never generate the same surrogate keys. The result is sorted by key and start date.
+   */
+  public List<StructuredRecord> process(Iterable<StructuredRecord> records) {
+    return process(records, 0L, conf.getSurrogateKeyField() == null ? null : KEY_ALLOCATOR.newGenerator());
+  }
+
+  /**
+   * Processes the records, the run start time determines the range of the generated surrogate keys. The caller must
+   * make sure that the run start times of calls that generate surrogate keys for the same target are at least
+   * 10 seconds apart. The result is sorted by key and start date.
+   */
+  public List<StructuredRecord> process(Iterable<StructuredRecord> records, long runStartTime) {
+    return process(records, runStartTime, null);
+  }
+
+  /**
+   * Processes the records with the given generator for all the chunks, or with a generator per chunk for the given
+   * run start time if it is null.
+   */
+  private List<StructuredRecord> process(Iterable<StructuredRecord> records, long runStartTime,
+                                         @Nullable SurrogateKeyGenerator sharedKeyGenerator) {
+    Set<String> excludedFields = conf.collapseReplays() ? conf.getComputedFields() : null;
+    Set<Schema> schemas = new HashSet<>();
+    List<Map.Entry<SCD2Key, StructuredRecord>> entries = new ArrayList<>();
+    for (StructuredRecord record : records) {
+      schemas.add(record.getSchema());
+      entries.add(new AbstractMap.SimpleImmutableEntry<>(
+        SCD2Key.of(record, conf.getKey(), conf.getStartDateField(), excludedFields), record));
+    }
+    if (entries.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    Schema outputSchema = conf.getOutputSchema(schemas);
+    // the sort runs in the pool, so the parallel sort forks its tasks into it
+    @SuppressWarnings("unchecked")
+    Map.Entry<SCD2Key, StructuredRecord>[] sorted = entries.toArray(new Map.Entry[0]);
+    pool.submit(() -> Arrays.parallelSort(sorted, Map.Entry.comparingByKey(new SCD2KeyComparator()))).join();
+
+    List<List<Map.Entry<SCD2Key, StructuredRecord>>> chunks = split(Arrays.asList(sorted));
+    List<ForkJoinTask<List<StructuredRecord>>> tasks = new ArrayList<>(chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      List<Map.Entry<SCD2Key, StructuredRecord>> chunk = chunks.get(i);
+      SurrogateKeyGenerator keyGenerator = conf.getSurrogateKeyField() == null || sharedKeyGenerator != null ?
+        sharedKeyGenerator : new SurrogateKeyGenerator(runStartTime, i, chunks.size());
+      tasks.add(pool.submit(() -> {
+        List<StructuredRecord> result = new ArrayList<>(chunk.size());
+        // closing the iterator deletes the spilled versions if processing fails
+        try (SCD2RecordIterator iterator = new SCD2RecordIterator(chunk.iterator(), conf, outputSchema, keyGenerator)) {
+          Iterators.addAll(result, iterator);
+        }
+        return result;
+      }));
+    }
+
+    List<StructuredRecord> result = new ArrayList<>(sorted.length);
+    for (ForkJoinTask<List<StructuredRecord>> task : tasks) {
+      result.addAll(task.join());
+    }
+    return result;
+  }
+
+  /**
+   * Splits the sorted records into chunks of about the same size, all the records of a key are in the same chunk.
+   */
+  private List<List<Map.Entry<SCD2Key, StructuredRecord>>> split(List<Map.Entry<SCD2Key, StructuredRecord>> sorted) {
+    int chunkSize = Math.max(1, sorted.size() / (pool.getParallelism() * CHUNKS_PER_THREAD));
+    List<List<Map.Entry<SCD2Key, StructuredRecord>>> chunks = new ArrayList<>();
+    int start = 0;
+    while (start < sorted.size()) {
+      int end = Math.min(sorted.size(), start + chunkSize);
+      while (end < sorted.size() && sorted.get(end).getKey().equals(sorted.get(end - 1).getKey())) {
+        end++;
+      }
+      chunks.add(sorted.subList(start, end));
+      start = end;
+    }
+    return chunks;
+  }
+}
@@ -17,10 +17,15 @@
 package io.cdap.plugin.scd2;
 
 import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.TaskContext;
 import org.apache.spark.api.java.function.FlatMapFunction;
 import scala.Tuple2;
 
+import java.io.File;
 import java.util.Iterator;
+import javax.annotation.Nullable;
 
 /**
  * Flap map function to convert a pair of key and value to the structured record.
@@ -29,13 +34,48 @@ import java.util.Iterator;
 public class SCD2FlatMapFunction
   implements FlatMapFunction<Iterator<Tuple2<SCD2Key, StructuredRecord>>, StructuredRecord> {
   private final SCD2Plugin.Conf conf;
+  private final Schema outputSchema;
+  private final long runStartTime;
+  private final String statisticsPath;
 
-  public SCD2FlatMapFunction(SCD2Plugin.Conf conf) {
+  public SCD2FlatMapFunction(SCD2Plugin.Conf conf, @Nullable Schema outputSchema, long runStartTime,
+                             @Nullable String statisticsPath) {
     this.conf = conf;
+    this.outputSchema = outputSchema;
+    this.runStartTime = runStartTime;
+    this.statisticsPath = statisticsPath;
   }
 
   @Override
   public Iterator<StructuredRecord> call(Iterator<Tuple2<SCD2Key, StructuredRecord>> records) {
-    return new SCD2Iterator(records, conf);
+    SurrogateKeyGenerator keyGenerator = null;
+    if (conf.getSurrogateKeyField() != null) {
+      keyGenerator = new SurrogateKeyGenerator(runStartTime, TaskContext.getPartitionId(), conf.getNumPartitions());
+    }
+    SCD2Iterator scd2Iterator = new SCD2Iterator(records, conf, outputSchema, keyGenerator,
+                                                 getLocalDir(TaskContext.getPartitionId()));
+    // the spilled versions are deleted even if the task fails or does not read all the records
+    TaskContext.get().addTaskCompletionListener(context -> scd2Iterator.close());
+    Iterator<StructuredRecord> iterator = scd2Iterator;
+    if (statisticsPath != null) {
+      iterator = new KeyRangeStatisticsIterator(iterator, conf, statisticsPath, TaskContext.getPartitionId());
+    }
+    return iterator;
+  }
+
+  /**
+   * Returns the local directory of the executor to spill to, which is one of the container directories on yarn,
+   * otherwise one of the spark local directories, like spark does for its own spill files.
+   */
+  private static File getLocalDir(int partition) {
+    String dirs = System.getenv("LOCAL_DIRS");
+    if (dirs == null) {
+      dirs = System.getenv("SPARK_LOCAL_DIRS");
+    }
+    if (dirs == null) {
+      dirs = SparkEnv.get().conf().get("spark.local.dir", System.getProperty("java.io.tmpdir"));
+    }
+    String[] localDirs = dirs.split(",");
+    return new File(localDirs[Math.floorMod(partition, localDirs.length)].trim());
   }
 }
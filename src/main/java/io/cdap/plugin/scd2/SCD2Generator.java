@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic SCD2 shaped records. The records of a key only depend on the seed and the key itself, so any
+ * range of keys can be generated independently and in parallel, and always produces the same records.
+ *
+ * Each key gets a number of versions drawn from a Zipf distribution over [1, maxVersions]. All versions but the last
+ * one have an end date, like records read from an existing SCD2 target. The last version, and any late arriving
+ * version, has no end date, like records from the new data. A late arriving version is not accounted for in the end
+ * date of the version before it.
+ */
+public class SCD2Generator implements Serializable {
+  public static final String KEY_FIELD = "id";
+  public static final String START_DATE_FIELD = "startDate";
+  public static final String END_DATE_FIELD = "endDate";
+  // 2000-01-01 00:00:00 timestamp in micro seconds
+  private static final long BASE_TS = 946684800000000L;
+  private static final long DAY_MICROS = 86400000000L;
+  private static final int MAX_GAP_DAYS = 30;
+  private static final int FIELD_LENGTH = 16;
+  private static final char[] CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+  private final long seed;
+  private final double lateArrivalRatio;
+  private final double duplicateRatio;
+  private final double nullDensity;
+  private final int numFields;
+  private final Schema schema;
+  // cumulative probabilities of having 1 to maxVersions versions
+  private final double[] versionsCdf;
+
+  public SCD2Generator(long seed, int maxVersions, double versionSkew, double lateArrivalRatio,
+                       double duplicateRatio, double nullDensity, int numFields) {
+    this.seed = seed;
+    this.lateArrivalRatio = lateArrivalRatio;
+    this.duplicateRatio = duplicateRatio;
+    this.nullDensity = nullDensity;
+    this.numFields = numFields;
+    this.schema = getSchema(numFields);
+    this.versionsCdf = new double[maxVersions];
+
+    double total = 0d;
+    for (int i = 0; i < maxVersions; i++) {
+      total += 1d / Math.pow(i + 1, versionSkew);
+      versionsCdf[i] = total;
+    }
+    for (int i = 0; i < maxVersions; i++) {
+      versionsCdf[i] /= total;
+    }
+  }
+
+  /**
+   * Returns the schema of the generated records, which has the key, start date, end date and the given number of
+   * string fields.
+   */
+  public static Schema getSchema(int numFields) {
+    List<Schema.Field> fields = new ArrayList<>();
+    fields.add(Schema.Field.of(KEY_FIELD, Schema.of(Schema.Type.LONG)));
+    fields.add(Schema.Field.of(START_DATE_FIELD, Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+    fields.add(Schema.Field.of(END_DATE_FIELD, Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))));
+    for (int i = 0; i < numFields; i++) {
+      fields.add(Schema.Field.of("field" + i, Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    }
+    return Schema.recordOf("scd2", fields);
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Generates all the records of the given key, in start date order.
+   */
+  public List<StructuredRecord> generate(long key) {
+    SplittableRandom random = new SplittableRandom(mix(seed, key));
+    int numVersions = getNumVersions(random.nextDouble());
+
+    long[] startDates = new long[numVersions];
+    boolean[] late = new boolean[numVersions];
+    long startDate = BASE_TS;
+    for (int i = 0; i < numVersions; i++) {
+      startDate += (1 + random.nextInt(MAX_GAP_DAYS)) * DAY_MICROS;
+      startDates[i] = startDate;
+      // the first and last versions are never late, there has to be a known version before and after it
+      late[i] = i > 0 && i < numVersions - 1 && random.nextDouble() < lateArrivalRatio;
+    }
+
+    List<StructuredRecord> records = new ArrayList<>();
+    for (int i = 0; i < numVersions; i++) {
+      Long endDate = null;
+      if (!late[i] && i < numVersions - 1) {
+        // the end date of the target version does not know about late versions right after it
+        int next = i + 1;
+        while (late[next]) {
+          next++;
+        }
+        endDate = startDates[next] - 1L;
+      }
+
+      StructuredRecord.Builder builder = StructuredRecord.builder(schema)
+        .set(KEY_FIELD, key)
+        .set(START_DATE_FIELD, startDates[i])
+        .set(END_DATE_FIELD, endDate);
+      for (int j = 0; j < numFields; j++) {
+        builder.set("field" + j, random.nextDouble() < nullDensity ? null : randomString(random));
+      }
+      StructuredRecord record = builder.build();
+      records.add(record);
+
+      // replays of the same change, each replay can be replayed again
+      while (random.nextDouble() < duplicateRatio) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+
+  private int getNumVersions(double p) {
+    int low = 0;
+    int high = versionsCdf.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (versionsCdf[mid] < p) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low + 1;
+  }
+
+  private String randomString(SplittableRandom random) {
+    char[] chars = new char[FIELD_LENGTH];
+    for (int i = 0; i < FIELD_LENGTH; i++) {
+      chars[i] = CHARS[random.nextInt(CHARS.length)];
+    }
+    return new String(chars);
+  }
+
+  // spread the seed and key over all the bits so that adjacent keys get unrelated random sequences
+  private static long mix(long seed, long key) {
+    long z = seed * 0x9E3779B97F4A7C15L + key;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
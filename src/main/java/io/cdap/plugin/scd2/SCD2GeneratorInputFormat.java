@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Input format that splits the key space of the {@link SCD2Generator} into contiguous key ranges, and generates the
+ * records of each range in its own split.
+ */
+public class SCD2GeneratorInputFormat extends InputFormat<NullWritable, StructuredRecord> {
+  private static final String PREFIX = "scd2.generator.";
+  private static final String NUM_KEYS = PREFIX + "num.keys";
+  private static final String NUM_SPLITS = PREFIX + "num.splits";
+  private static final String SEED = PREFIX + "seed";
+  private static final String MAX_VERSIONS = PREFIX + "max.versions";
+  private static final String VERSION_SKEW = PREFIX + "version.skew";
+  private static final String LATE_ARRIVAL_RATIO = PREFIX + "late.arrival.ratio";
+  private static final String DUPLICATE_RATIO = PREFIX + "duplicate.ratio";
+  private static final String NULL_DENSITY = PREFIX + "null.density";
+  private static final String NUM_FIELDS = PREFIX + "num.fields";
+
+  /**
+   * Sets the generator settings from the source config in the hadoop configuration.
+   */
+  public static void configure(Configuration hConf, SCD2GeneratorSource.Conf conf) {
+    hConf.setLong(NUM_KEYS, conf.getNumKeys());
+    hConf.setInt(NUM_SPLITS, conf.getNumSplits());
+    hConf.setLong(SEED, conf.getSeed());
+    hConf.setInt(MAX_VERSIONS, conf.getMaxVersions());
+    hConf.set(VERSION_SKEW, String.valueOf(conf.getVersionSkew()));
+    hConf.set(LATE_ARRIVAL_RATIO, String.valueOf(conf.getLateArrivalRatio()));
+    hConf.set(DUPLICATE_RATIO, String.valueOf(conf.getDuplicateRatio()));
+    hConf.set(NULL_DENSITY, String.valueOf(conf.getNullDensity()));
+    hConf.setInt(NUM_FIELDS, conf.getNumFields());
+  }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext context) {
+    Configuration hConf = context.getConfiguration();
+    long numKeys = hConf.getLong(NUM_KEYS, 0L);
+    int numSplits = (int) Math.max(1L, Math.min(numKeys, hConf.getInt(NUM_SPLITS, 1)));
+
+    List<InputSplit> splits = new ArrayList<>(numSplits);
+    for (int i = 0; i < numSplits; i++) {
+      splits.add(new GeneratorSplit(numKeys * i / numSplits, numKeys * (i + 1) / numSplits));
+    }
+    return splits;
+  }
+
+  @Override
+  public RecordReader<NullWritable, StructuredRecord> createRecordReader(InputSplit split,
+                                                                         TaskAttemptContext context) {
+    return new GeneratorRecordReader();
+  }
+
+  private static SCD2Generator createGenerator(Configuration hConf) {
+    return new SCD2Generator(hConf.getLong(SEED, 0L), hConf.getInt(MAX_VERSIONS, 1),
+                             Double.parseDouble(hConf.get(VERSION_SKEW, "0")),
+                             Double.parseDouble(hConf.get(LATE_ARRIVAL_RATIO, "0")),
+                             Double.parseDouble(hConf.get(DUPLICATE_RATIO, "0")),
+                             Double.parseDouble(hConf.get(NULL_DENSITY, "0")),
+                             hConf.getInt(NUM_FIELDS, 0));
+  }
+
+  /**
+   * A split containing the keys from start (inclusive) to end (exclusive).
+   */
+  public static class GeneratorSplit extends InputSplit implements Writable {
+    private long start;
+    private long end;
+
+    // required for deserialization
+    public GeneratorSplit() {
+    }
+
+    GeneratorSplit(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public long getLength() {
+      return end - start;
+    }
+
+    @Override
+    public String[] getLocations() {
+      return new String[0];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(start);
+      out.writeLong(end);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      start = in.readLong();
+      end = in.readLong();
+    }
+  }
+
+  /**
+   * Generates the records of a split one key at a time.
+   */
+  private static class GeneratorRecordReader extends RecordReader<NullWritable, StructuredRecord> {
+    private SCD2Generator generator;
+    private long start;
+    private long end;
+    private long nextKey;
+    private Iterator<StructuredRecord> records;
+    private StructuredRecord current;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) {
+      GeneratorSplit generatorSplit = (GeneratorSplit) split;
+      generator = createGenerator(context.getConfiguration());
+      start = generatorSplit.start;
+      end = generatorSplit.end;
+      nextKey = start;
+    }
+
+    @Override
+    public boolean nextKeyValue() {
+      while (records == null || !records.hasNext()) {
+        if (nextKey >= end) {
+          current = null;
+          return false;
+        }
+        records = generator.generate(nextKey++).iterator();
+      }
+      current = records.next();
+      return true;
+    }
+
+    @Override
+    public NullWritable getCurrentKey() {
+      return NullWritable.get();
+    }
+
+    @Override
+    public StructuredRecord getCurrentValue() {
+      return current;
+    }
+
+    @Override
+    public float getProgress() {
+      return end == start ? 1f : (float) (nextKey - start) / (end - start);
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+  }
+}
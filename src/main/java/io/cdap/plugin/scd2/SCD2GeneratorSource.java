@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.batch.Input;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.dataset.lib.KeyValue;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageConfigurer;
+import io.cdap.cdap.etl.api.batch.BatchSource;
+import io.cdap.cdap.etl.api.batch.BatchSourceContext;
+import io.cdap.plugin.common.SourceInputFormatProvider;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+
+import javax.annotation.Nullable;
+
+/**
+ * Batch source that generates synthetic SCD2 data, used to load test the scd2 plugin without external services.
+ */
+@Name("SCD2Generator")
+@Plugin(type = BatchSource.PLUGIN_TYPE)
+public class SCD2GeneratorSource extends BatchSource<NullWritable, StructuredRecord, StructuredRecord> {
+  private final Conf conf;
+
+  public SCD2GeneratorSource(Conf conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+    StageConfigurer stageConfigurer = pipelineConfigurer.getStageConfigurer();
+    FailureCollector failureCollector = stageConfigurer.getFailureCollector();
+    conf.validate(failureCollector);
+    failureCollector.getOrThrowException();
+    if (!conf.containsMacro(Conf.NUM_FIELDS)) {
+      stageConfigurer.setOutputSchema(SCD2Generator.getSchema(conf.getNumFields()));
+    }
+  }
+
+  @Override
+  public void prepareRun(BatchSourceContext context) {
+    FailureCollector failureCollector = context.getFailureCollector();
+    conf.validate(failureCollector);
+    failureCollector.getOrThrowException();
+
+    Configuration hConf = new Configuration();
+    SCD2GeneratorInputFormat.configure(hConf, conf);
+    context.setInput(Input.of(context.getStageName(),
+                              new SourceInputFormatProvider(SCD2GeneratorInputFormat.class, hConf)));
+  }
+
+  @Override
+  public void transform(KeyValue<NullWritable, StructuredRecord> input, Emitter<StructuredRecord> emitter) {
+    emitter.emit(input.getValue());
+  }
+
+  /**
+   * Conf for the scd2 generator source
+   */
+  @SuppressWarnings("unused")
+  public static class Conf extends PluginConfig {
+    private static final String NUM_KEYS = "numKeys";
+    private static final String NUM_SPLITS = "numSplits";
+    private static final String MAX_VERSIONS = "maxVersions";
+    private static final String VERSION_SKEW = "versionSkew";
+    private static final String LATE_ARRIVAL_RATIO = "lateArrivalRatio";
+    private static final String DUPLICATE_RATIO = "duplicateRatio";
+    private static final String NULL_DENSITY = "nullDensity";
+    private static final String NUM_FIELDS = "numFields";
+
+    @Nullable
+    @Macro
+    @Description("Number of distinct keys to generate. If not specified, 10000 is used as default.")
+    private Long numKeys;
+
+    @Nullable
+    @Macro
+    @Description("Number of splits to generate the keys in parallel. If not specified, 10 is used as default.")
+    private Integer numSplits;
+
+    @Nullable
+    @Macro
+    @Description("Seed for the random generator. The same seed always generates the same records. " +
+                   "If not specified, 0 is used as default.")
+    private Long seed;
+
+    @Nullable
+    @Macro
+    @Description("Maximum number of versions of a key. If not specified, 10 is used as default.")
+    private Integer maxVersions;
+
+    @Nullable
+    @Macro
+    @Description("Zipf exponent of the number of versions per key. 0 distributes the number of versions uniformly, " +
+                   "higher values generate few keys with many versions. If not specified, 0 is used as default.")
+    private Double versionSkew;
+
+    @Nullable
+    @Macro
+    @Description("Ratio of versions that arrive late, between two versions that are already known. " +
+                   "If not specified, 0 is used as default.")
+    private Double lateArrivalRatio;
+
+    @Nullable
+    @Macro
+    @Description("Probability that a record is delivered again. A record can be delivered several times. " +
+                   "If not specified, 0 is used as default.")
+    private Double duplicateRatio;
+
+    @Nullable
+    @Macro
+    @Description("Probability that a generated field is null. If not specified, 0 is used as default.")
+    private Double nullDensity;
+
+    @Nullable
+    @Macro
+    @Description("Number of string fields in each record, in addition to the key, start date and end date fields. " +
+                   "If not specified, 10 is used as default.")
+    private Integer numFields;
+
+    @VisibleForTesting
+    public Conf(long numKeys, int numSplits, long seed, int maxVersions, double versionSkew,
+                double lateArrivalRatio, double duplicateRatio, double nullDensity, int numFields) {
+      this.numKeys = numKeys;
+      this.numSplits = numSplits;
+      this.seed = seed;
+      this.maxVersions = maxVersions;
+      this.versionSkew = versionSkew;
+      this.lateArrivalRatio = lateArrivalRatio;
+      this.duplicateRatio = duplicateRatio;
+      this.nullDensity = nullDensity;
+      this.numFields = numFields;
+    }
+
+    public long getNumKeys() {
+      return numKeys == null ? 10000L : numKeys;
+    }
+
+    public int getNumSplits() {
+      return numSplits == null ? 10 : numSplits;
+    }
+
+    public long getSeed() {
+      return seed == null ? 0L : seed;
+    }
+
+    public int getMaxVersions() {
+      return maxVersions == null ? 10 : maxVersions;
+    }
+
+    public double getVersionSkew() {
+      return versionSkew == null ? 0d : versionSkew;
+    }
+
+    public double getLateArrivalRatio() {
+      return lateArrivalRatio == null ? 0d : lateArrivalRatio;
+    }
+
+    public double getDuplicateRatio() {
+      return duplicateRatio == null ? 0d : duplicateRatio;
+    }
+
+    public double getNullDensity() {
+      return nullDensity == null ? 0d : nullDensity;
+    }
+
+    public int getNumFields() {
+      return numFields == null ? 10 : numFields;
+    }
+
+    public SCD2Generator getGenerator() {
+      return new SCD2Generator(getSeed(), getMaxVersions(), getVersionSkew(), getLateArrivalRatio(),
+                               getDuplicateRatio(), getNullDensity(), getNumFields());
+    }
+
+    private void validate(FailureCollector failureCollector) {
+      if (!containsMacro(NUM_KEYS) && getNumKeys() < 0) {
+        failureCollector.addFailure(String.format("The %s must not be negative.", NUM_KEYS), null)
+          .withConfigProperty(NUM_KEYS);
+      }
+      if (!containsMacro(NUM_SPLITS) && getNumSplits() < 1) {
+        failureCollector.addFailure(String.format("The %s must be at least 1.", NUM_SPLITS), null)
+          .withConfigProperty(NUM_SPLITS);
+      }
+      if (!containsMacro(MAX_VERSIONS) && getMaxVersions() < 1) {
+        failureCollector.addFailure(String.format("The %s must be at least 1.", MAX_VERSIONS), null)
+          .withConfigProperty(MAX_VERSIONS);
+      }
+      if (!containsMacro(VERSION_SKEW) && getVersionSkew() < 0d) {
+        failureCollector.addFailure(String.format("The %s must not be negative.", VERSION_SKEW), null)
+          .withConfigProperty(VERSION_SKEW);
+      }
+      if (!containsMacro(NUM_FIELDS) && getNumFields() < 0) {
+        failureCollector.addFailure(String.format("The %s must not be negative.", NUM_FIELDS), null)
+          .withConfigProperty(NUM_FIELDS);
+      }
+      validateRatio(LATE_ARRIVAL_RATIO, getLateArrivalRatio(), failureCollector);
+      validateRatio(NULL_DENSITY, getNullDensity(), failureCollector);
+      // a record is replayed as long as the draw is below the ratio, so it has to be below 1
+      if (!containsMacro(DUPLICATE_RATIO) && (getDuplicateRatio() < 0d || getDuplicateRatio() >= 1d)) {
+        failureCollector.addFailure(String.format("The %s must be at least 0 and less than 1.", DUPLICATE_RATIO),
+                                    null).withConfigProperty(DUPLICATE_RATIO);
+      }
+    }
+
+    private void validateRatio(String name, double ratio, FailureCollector failureCollector) {
+      if (!containsMacro(name) && (ratio < 0d || ratio > 1d)) {
+        failureCollector.addFailure(String.format("The %s must be between 0 and 1.", name), null)
+          .withConfigProperty(name);
+      }
+    }
+  }
+}
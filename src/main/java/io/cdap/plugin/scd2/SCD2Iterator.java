@@ -16,120 +16,51 @@
 
 package io.cdap.plugin.scd2;
 
-import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
+import com.google.common.collect.Iterators;
 import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
 import scala.Tuple2;
 
+import java.io.File;
+import java.util.AbstractMap;
 import java.util.Iterator;
-import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
- * The scd2 iterator, it keeps track of cur, prev, next from the given iterator.
+ * The scd2 iterator for the key and record tuples of spark, which are sorted by key and start date.
  */
-public class SCD2Iterator extends AbstractIterator<StructuredRecord> {
-  // 9999-12-31 00:00:00 timestamp in micro seconds
-  private static final long ACTIVE_TS = 253402214400000000L;
-  private final Iterator<Tuple2<SCD2Key, StructuredRecord>> records;
-  private final Table<Object, String, Object> valTable;
-  private final SCD2Plugin.Conf conf;
-  private final Set<String> blacklist;
-  private Schema outputSchema;
-  private Tuple2<SCD2Key, StructuredRecord> cur;
-  private Tuple2<SCD2Key, StructuredRecord> prev;
-  private Tuple2<SCD2Key, StructuredRecord> next;
+public class SCD2Iterator extends SCD2RecordIterator {
 
   public SCD2Iterator(Iterator<Tuple2<SCD2Key, StructuredRecord>> records, SCD2Plugin.Conf conf) {
-    this.records = records;
-    this.conf = conf;
-    this.blacklist = conf.getBlacklist();
-    this.valTable = HashBasedTable.create();
+    this(records, conf, null);
   }
 
-  @Override
-  protected StructuredRecord computeNext() {
-    // if the records does not have value, but next still have a value, we still need to process it
-    if (!records.hasNext() && next == null) {
-      return endOfData();
-    }
-
-    prev = cur;
-    cur = next != null ? next : records.next();
-    next = records.hasNext() ? records.next() : null;
-
-    boolean isDiff = false;
-    // deduplicate the result
-    while (conf.deduplicate() && !isDiff) {
-      if (next == null || !next._1().equals(cur._1())) {
-        break;
-      }
-
-      for (Schema.Field field : cur._2().getSchema().getFields()) {
-        String fieldName = field.getName();
-        Object value = cur._2().get(fieldName);
-        if (blacklist.contains(fieldName)) {
-          continue;
-        }
-
-        // check if there is difference between next record and cur record
-        Object nextVal = next._2().get(fieldName);
-        if ((nextVal == null) != (value == null) || (value != null && !value.equals(nextVal))) {
-          isDiff = true;
-          break;
-        }
-      }
-
-      if (!isDiff) {
-        prev = cur;
-        cur = next != null ? next : records.next();
-        next = records.hasNext() ? records.next() : null;
-      }
-    }
-
-    // if key changes, clean up the table to free memory
-    if (prev != null && !prev._1().equals(cur._1())) {
-      valTable.row(prev._1().getKey()).clear();
-    }
-
-    return computeRecord(cur._1().getKey(),
-                         prev != null && prev._1().equals(cur._1()) ? prev._2() : null,
-                         cur._2(),
-                         next != null && next._1().equals(cur._1()) ? next._2() : null);
+  /**
+   * Creates the iterator with the output schema merged from all the input schemas. If the output schema is null,
+   * it is derived from the schema of the first record.
+   */
+  public SCD2Iterator(Iterator<Tuple2<SCD2Key, StructuredRecord>> records, SCD2Plugin.Conf conf,
+                      @Nullable Schema outputSchema) {
+    this(records, conf, outputSchema, null);
   }
 
-  private StructuredRecord computeRecord(Object key, @Nullable StructuredRecord prev, StructuredRecord cur,
-                                         @Nullable StructuredRecord next) {
-    if (outputSchema == null) {
-      outputSchema = conf.getOutputSchema(cur.getSchema());
-    }
-
-    StructuredRecord.Builder builder = StructuredRecord.builder(outputSchema);
-
-    for (Schema.Field field : cur.getSchema().getFields()) {
-      String fieldName = field.getName();
-      Object value = cur.get(fieldName);
-
-      // fill in null from previous record
-      if (conf.fillInNull() && value == null) {
-        value = valTable.get(key, fieldName);
-      }
-      builder.set(fieldName, value);
-      if (conf.fillInNull() && value != null) {
-        valTable.put(key, fieldName, value);
-      }
-    }
+  /**
+   * Creates the iterator with the generator for the surrogate keys of new versions, which is required if the
+   * surrogate key field is set.
+   */
+  public SCD2Iterator(Iterator<Tuple2<SCD2Key, StructuredRecord>> records, SCD2Plugin.Conf conf,
+                      @Nullable Schema outputSchema, @Nullable SurrogateKeyGenerator keyGenerator) {
+    this(records, conf, outputSchema, keyGenerator, null);
+  }
 
-    long endDate;
-    if (next == null) {
-      endDate = ACTIVE_TS;
-    } else {
-      Long date = next.get(conf.getStartDateField());
-      endDate = date == null ? ACTIVE_TS : date - 1L;
-    }
-    builder.set(conf.getEndDateField(), endDate);
-    return builder.build();
+  /**
+   * Creates the iterator that spills the versions of keys with many versions to the given directory, such as a
+   * local directory of the executor.
+   */
+  public SCD2Iterator(Iterator<Tuple2<SCD2Key, StructuredRecord>> records, SCD2Plugin.Conf conf,
+                      @Nullable Schema outputSchema, @Nullable SurrogateKeyGenerator keyGenerator,
+                      @Nullable File spillDirectory) {
+    super(Iterators.transform(records, record -> new AbstractMap.SimpleImmutableEntry<>(record._1(), record._2())),
+          conf, outputSchema, keyGenerator, spillDirectory);
   }
 }
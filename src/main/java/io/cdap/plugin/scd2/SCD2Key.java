@@ -16,22 +16,42 @@
 
 package io.cdap.plugin.scd2;
 
+import io.cdap.cdap.api.data.format.StructuredRecord;
+
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
  * A key that hashes and is equal based on a single key value, but which also contains the start date for ordering.
+ * It can also contain a hash of the record payload, which orders records with the same start date deterministically.
  *
  * @param <T> t the type of the key
  */
 public class SCD2Key<T extends Comparable<T>> implements Serializable {
   private final T key;
   private final long startDate;
+  private final int payloadHash;
 
   public SCD2Key(@Nullable T key, long startDate) {
+    this(key, startDate, 0);
+  }
+
+  public SCD2Key(@Nullable T key, long startDate, int payloadHash) {
     this.key = key;
     this.startDate = startDate;
+    this.payloadHash = payloadHash;
+  }
+
+  /**
+   * Creates the key of the given record. If the fields to exclude from the payload are given, the key also contains
+   * the hash of the other fields.
+   */
+  public static SCD2Key of(StructuredRecord record, String keyField, String startDateField,
+                           @Nullable Set<String> excludedFields) {
+    int payloadHash = excludedFields == null ? 0 : RecordPayload.hash(record, excludedFields);
+    return new SCD2Key(record.get(keyField), record.get(startDateField), payloadHash);
   }
 
   @Nullable
@@ -43,6 +63,10 @@ public class SCD2Key<T extends Comparable<T>> implements Serializable {
     return startDate;
   }
 
+  public int getPayloadHash() {
+    return payloadHash;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
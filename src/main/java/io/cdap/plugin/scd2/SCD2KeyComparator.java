@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * Compare the scd2key, first compare the key, then compare the start date and then compare the payload hash.
+ */
+public class SCD2KeyComparator implements Comparator<SCD2Key>, Serializable {
+
+  @Override
+  public int compare(SCD2Key k1, SCD2Key k2) {
+    Comparable k1Key = k1.getKey();
+    Comparable k2Key = k2.getKey();
+    if (k1Key == k2Key && k1Key == null) {
+      return 0;
+    }
+
+    if (k1Key == null) {
+      return -1;
+    }
+
+    if (k2Key == null) {
+      return 1;
+    }
+
+    int cmp = k1Key.compareTo(k2Key);
+    if (cmp != 0) {
+      return cmp;
+    }
+
+    cmp = Long.compare(k1.getStartDate(), k2.getStartDate());
+    if (cmp != 0) {
+      return cmp;
+    }
+
+    // records with the same start date are ordered by payload hash, so that replays of the same record are in the same
+    // run of equal hashes, which the replay collapsing compares as a whole in case of hash collisions
+    return Integer.compare(k1.getPayloadHash(), k2.getPayloadHash());
+  }
+}
@@ -34,14 +34,21 @@ import io.cdap.cdap.etl.api.batch.SparkPluginContext;
 import io.cdap.cdap.etl.api.lineage.field.FieldOperation;
 import io.cdap.cdap.etl.api.lineage.field.FieldTransformOperation;
 import org.apache.spark.api.java.JavaRDD;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import javax.annotation.Nullable;
 
 /**
@@ -50,6 +57,7 @@ import javax.annotation.Nullable;
 @Name("SCD2")
 @Plugin(type = SparkCompute.PLUGIN_TYPE)
 public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord> {
+  private static final Logger LOG = LoggerFactory.getLogger(SCD2Plugin.class);
   private final Conf conf;
 
   public SCD2Plugin(Conf conf) {
@@ -60,14 +68,39 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
   public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
     StageConfigurer stageConfigurer = pipelineConfigurer.getStageConfigurer();
     FailureCollector failureCollector = stageConfigurer.getFailureCollector();
-    conf.validate(stageConfigurer.getInputSchema(), failureCollector);
+    // the output schema is merged from all the inputs, like in transform
+    Collection<Schema> inputSchemas = stageConfigurer.getInputSchemas().values();
+    conf.validate(inputSchemas, failureCollector);
     failureCollector.getOrThrowException();
-    stageConfigurer.setOutputSchema(conf.getOutputSchema(stageConfigurer.getInputSchema()));
+    stageConfigurer.setOutputSchema(conf.getOutputSchema(inputSchemas));
   }
 
   @Override
   public void prepareRun(SparkPluginContext context) {
-    conf.validate(context.getInputSchema(), context.getFailureCollector());
+    conf.validate(context.getInputSchemas().values(), context.getFailureCollector());
+    SCD2Backfill backfill = conf.getBackfill();
+    String runId = UUID.randomUUID().toString();
+    if (backfill != null) {
+      try {
+        // the chunks are claimed once, so that transform and onRunFinish use the same chunks and overlapping runs
+        // never process the same chunk
+        runId = backfill.startRun();
+        Set<Integer> chunks = backfill.getRunChunks(runId);
+        LOG.info("Backfill run {} processes chunks {}.", runId, chunks);
+        if (chunks.isEmpty() && !backfill.getPendingChunks().isEmpty()) {
+          LOG.warn("Backfill chunks {} are not done, but they are claimed by other runs. If those runs are no " +
+                     "longer going, delete their claim files from the checkpoint path.",
+                   backfill.getPendingChunks());
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to pick the backfill chunks of the run.", e);
+      }
+    }
+    context.getArguments().set(getRunIdArgument(context.getStageName()), runId);
+    // the surrogate keys are based on the actual start time of the run, the logical start time can be set by the
+    // user, for example to reprocess the data of an earlier run, and then several runs would share it
+    context.getArguments().set(getKeyTimeArgument(context.getStageName()),
+                               Long.toString(System.currentTimeMillis()));
     List<FieldOperation> ops = new ArrayList<FieldOperation>();
 
     // Fill in basic transformations
@@ -78,6 +111,17 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
     ops.add(new FieldTransformOperation(
       conf.endDateField + " SCD2", "Computed end date field from the start date field",
       Collections.singletonList(conf.startDateField), conf.endDateField));
+    if (conf.surrogateKeyField != null) {
+      ops.add(new FieldTransformOperation(
+        conf.surrogateKeyField + " SCD2", "Kept or generated surrogate key of each version",
+        Collections.singletonList(conf.key), conf.surrogateKeyField));
+    }
+    Map<String, String> currentValueFields = conf.getCurrentValueFields();
+    for (Map.Entry<String, String> field : currentValueFields.entrySet()) {
+      ops.add(new FieldTransformOperation(
+        field.getValue() + " SCD2", "Copied current value of " + field.getKey() + " onto all versions",
+        Collections.singletonList(field.getKey()), field.getValue()));
+    }
 
     // Description of the general transformation
     String desc = "copy";
@@ -87,8 +131,11 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
     if (conf.deduplicate()) {
       desc = desc + ", remove duplicate rows";
     }
+    if (conf.collapseReplays()) {
+      desc = desc + ", remove replayed rows";
+    }
 
-    Schema outputSchema = conf.getOutputSchema(context.getInputSchema());
+    Schema outputSchema = conf.getOutputSchema(context.getInputSchemas().values());
     if (outputSchema == null) {
       context.record(ops);
       return;
@@ -97,7 +144,8 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
     // Fill in general transforms
     for (Schema.Field field : outputSchema.getFields()) {
       String fname = field.getName();
-      if (fname.equals(conf.startDateField) || fname.equals(conf.endDateField) || fname.equals(conf.key)) {
+      if (fname.equals(conf.startDateField) || fname.equals(conf.endDateField) || fname.equals(conf.key) ||
+        fname.equals(conf.surrogateKeyField) || currentValueFields.containsValue(fname)) {
         continue;
       }
       ops.add(new FieldTransformOperation(fname + " SCD2", desc, Collections.singletonList(fname), fname));
@@ -106,10 +154,70 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
     context.record(ops);
   }
 
+  @Override
+  public void onRunFinish(boolean succeeded, SparkPluginContext context) {
+    SCD2Backfill backfill = conf.getBackfill();
+    String runId = context.getArguments().get(getRunIdArgument(context.getStageName()));
+    if (runId == null) {
+      return;
+    }
+
+    if (!succeeded && conf.getStatisticsPath() != null) {
+      try {
+        // the output of a failed run is not committed, so its statistics do not describe any output
+        KeyRangeStatistics.delete(KeyRangeStatistics.getRunPath(conf.getStatisticsPath(), runId));
+      } catch (IOException e) {
+        LOG.warn("Failed to delete the key range statistics of run {}.", runId, e);
+      }
+    }
+    // the output of a successful run replaces the previous output, except for backfill runs, which append to it and
+    // keep the statistics of the previous runs valid
+    if (succeeded && conf.getStatisticsPath() != null && backfill == null) {
+      try {
+        KeyRangeStatistics.deleteOtherRuns(conf.getStatisticsPath(), runId);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete the key range statistics of the runs before run {}.", runId, e);
+      }
+    }
+    if (backfill == null) {
+      return;
+    }
+
+    try {
+      Set<Integer> chunks = backfill.finishRun(runId, succeeded);
+      LOG.info("Backfill chunks {} are done.", chunks);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to record the backfill chunks that are done.", e);
+    }
+  }
+
   @Override
   public JavaRDD<StructuredRecord> transform(SparkExecutionPluginContext context,
-                                             JavaRDD<StructuredRecord> javaRDD) {
-    return new SCD2Processor(conf).process(javaRDD);
+                                             JavaRDD<StructuredRecord> javaRDD) throws IOException {
+    String runId = context.getArguments().get(getRunIdArgument(context.getStageName()));
+    SCD2Backfill backfill = conf.getBackfill();
+    Set<Integer> backfillChunks = backfill == null ? null : backfill.getRunChunks(runId);
+    String statisticsPath = conf.getStatisticsPath() == null ? null :
+      KeyRangeStatistics.getRunPath(conf.getStatisticsPath(), runId);
+    long keyTime = Long.parseLong(context.getArguments().get(getKeyTimeArgument(context.getStageName())));
+    SCD2Processor processor = new SCD2Processor(conf, conf.getOutputSchema(context.getInputSchemas().values()),
+                                                keyTime, backfillChunks, statisticsPath);
+    return processor.process(javaRDD);
+  }
+
+  /**
+   * Returns the name of the runtime argument that holds the run id of the given stage, which identifies the backfill
+   * chunks and the statistics of the run.
+   */
+  private static String getRunIdArgument(String stageName) {
+    return String.format("scd2.%s.run.id", stageName);
+  }
+
+  /**
+   * Returns the name of the runtime argument that holds the time the surrogate keys of the given stage are based on.
+   */
+  private static String getKeyTimeArgument(String stageName) {
+    return String.format("scd2.%s.key.time", stageName);
   }
 
   /**
@@ -122,6 +230,14 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
     private static final String END_DATE_FIELD = "endDateField";
     private static final String PLACEHOLDER = "placeHolderFields";
     private static final String BLACKLIST = "blacklist";
+    private static final String SURROGATE_KEY_FIELD = "surrogateKeyField";
+    private static final String COLLAPSE_REPLAYS = "collapseReplays";
+    private static final String CURRENT_VALUE_FIELDS = "currentValueFields";
+    private static final String MAX_BUFFERED_VERSIONS = "maxBufferedVersions";
+    private static final String NUM_PARTITIONS = "numPartitions";
+    private static final String BACKFILL_CHUNKS = "backfillChunks";
+    private static final String BACKFILL_CHUNKS_PER_RUN = "backfillChunksPerRun";
+    private static final String BACKFILL_CHECKPOINT_PATH = "backfillCheckpointPath";
 
     @Macro
     @Description("The name of the key field. The key field is used to compare the new records with their previous " +
@@ -150,6 +266,12 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
     @Description("Fill in null fields from most recent previous record.")
     private Boolean fillInNull;
 
+    @Nullable
+    @Macro
+    @Description("Collapse replays of the same change, which have the same key, start date and values for all the " +
+                   "fields except the end date and surrogate key, into a single record.")
+    private Boolean collapseReplays;
+
     @Nullable
     @Macro
     @Description("Blacklist for fields to ignore to compare when deduplicating the record.")
@@ -161,15 +283,94 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
                    "framework will decide on the number to use.")
     private Integer numPartitions;
 
+    @Nullable
+    @Macro
+    @Description("The name of the surrogate key field. If specified, each new version gets a unique long surrogate " +
+                   "key, and versions that already have a surrogate key keep it. The field is added to the output " +
+                   "if it does not exist in the input. The keys are based on the actual start time of the run, not " +
+                   "the logical start time. Runs must start at least 10 seconds apart and before 2105, " +
+                   "the number of partitions can be at most 65536, and each partition can generate 2^35 keys per " +
+                   "run divided by the number of partitions rounded up to a power of two, which is 134217728 keys " +
+                   "with 200 partitions.")
+    private String surrogateKeyField;
+
+    @Nullable
+    @Macro
+    @Description("Fields whose current value is copied onto all the versions of a key, as a list of " +
+                   "'field:currentField' pairs. The current value is the value of the last version of the key. " +
+                   "The current fields are added to the output if they do not exist in the input.")
+    private String currentValueFields;
+
+    @Nullable
+    @Macro
+    @Description("Maximum number of versions of a key to keep in memory when computing current values. Older " +
+                   "versions of keys with more versions are spilled to local disk. If not specified, 10000 is used " +
+                   "as default.")
+    private Integer maxBufferedVersions;
+
+    @Nullable
+    @Macro
+    @Description("Number of chunks to split the keys into for a backfill. If specified, each run only processes " +
+                   "the records of the next chunks that are not done yet, and records them as done when the run " +
+                   "succeeds. It can not change until the backfill is done, unless the checkpoint path is deleted. " +
+                   "If not specified, all the records are processed in one run.")
+    private Integer backfillChunks;
+
+    @Nullable
+    @Macro
+    @Description("Number of backfill chunks to process in each run. If not specified, 1 is used as default.")
+    private Integer backfillChunksPerRun;
+
+    @Nullable
+    @Macro
+    @Description("Path of the directory that records the backfill chunks that are done, the chunks claimed by the " +
+                   "runs that are going and the number of chunks. Required if the number of backfill chunks is " +
+                   "specified.")
+    private String backfillCheckpointPath;
+
+    @Nullable
+    @Macro
+    @Description("Partition the records by ranges of keys instead of hashes of keys, so that the partitions have " +
+                   "non-overlapping key ranges. The ranges are computed from a sample of the keys.")
+    private Boolean rangePartitioning;
+
+    @Nullable
+    @Macro
+    @Description("Path of the directory to write the key range statistics of each partition to. The statistics are " +
+                   "the min and max key, the min and max start date, the number of rows and the number of active " +
+                   "rows. Each run writes to its own 'run-<id>' sub-directory. When a run succeeds, the statistics " +
+                   "of the other runs are deleted, except for backfill runs, which append to the output. Bytes keys " +
+                   "are written as lower case hex. The statistics of partition N " +
+                   "only describe an output file if the sink writes one file per partition, named by its index. " +
+                   "If not specified, no statistics are written.")
+    private String statisticsPath;
+
     @VisibleForTesting
     public Conf(String key, String startDateField, String endDateField, boolean deduplicate,
                 boolean fillInNull, String blacklist) {
+      this(key, startDateField, endDateField, deduplicate, fillInNull, blacklist, null, false, null);
+    }
+
+    @VisibleForTesting
+    public Conf(String key, String startDateField, String endDateField, boolean deduplicate,
+                boolean fillInNull, String blacklist, @Nullable String surrogateKeyField, boolean collapseReplays,
+                @Nullable String currentValueFields) {
       this.key = key;
       this.startDateField = startDateField;
       this.endDateField = endDateField;
       this.deduplicate = deduplicate;
       this.fillInNull = fillInNull;
       this.blacklist = blacklist;
+      this.surrogateKeyField = surrogateKeyField;
+      this.collapseReplays = collapseReplays;
+      this.currentValueFields = currentValueFields;
+    }
+
+    /**
+     * Returns a builder for a conf used outside of a pipeline, such as by the {@link SCD2Engine}.
+     */
+    public static Builder builder(String key, String startDateField, String endDateField) {
+      return new Builder(key, startDateField, endDateField);
     }
 
     public String getKey() {
@@ -184,6 +385,11 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
       return endDateField;
     }
 
+    @Nullable
+    public String getSurrogateKeyField() {
+      return containsMacro(SURROGATE_KEY_FIELD) ? null : surrogateKeyField;
+    }
+
     public boolean deduplicate() {
       return deduplicate == null ? false : deduplicate;
     }
@@ -192,10 +398,72 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
       return fillInNull == null ? false : fillInNull;
     }
 
+    public boolean collapseReplays() {
+      return collapseReplays == null ? false : collapseReplays;
+    }
+
+    /**
+     * Returns the fields whose values are computed by the plugin, which are not part of the record payload.
+     */
+    public Set<String> getComputedFields() {
+      Set<String> fields = new HashSet<>();
+      fields.add(endDateField);
+      if (getSurrogateKeyField() != null) {
+        fields.add(getSurrogateKeyField());
+      }
+      fields.addAll(getCurrentValueFields().values());
+      return fields;
+    }
+
+    /**
+     * Returns the fields whose current value is copied onto all the versions, mapped to the field holding the
+     * current value.
+     */
+    public Map<String, String> getCurrentValueFields() {
+      Map<String, String> fields = new LinkedHashMap<>();
+      if (containsMacro(CURRENT_VALUE_FIELDS) || currentValueFields == null) {
+        return fields;
+      }
+      for (String pair : Splitter.on(',').trimResults().omitEmptyStrings().split(currentValueFields)) {
+        int idx = pair.indexOf(':');
+        if (idx < 0) {
+          throw new IllegalArgumentException(
+            String.format("The %s '%s' must be a 'field:currentField' pair.", CURRENT_VALUE_FIELDS, pair));
+        }
+        fields.put(pair.substring(0, idx).trim(), pair.substring(idx + 1).trim());
+      }
+      return fields;
+    }
+
+    public int getMaxBufferedVersions() {
+      return maxBufferedVersions == null ? 10000 : maxBufferedVersions;
+    }
+
     public int getNumPartitions() {
       return numPartitions == null ? 200 : numPartitions;
     }
 
+    public boolean rangePartitioning() {
+      return rangePartitioning == null ? false : rangePartitioning;
+    }
+
+    @Nullable
+    public String getStatisticsPath() {
+      return statisticsPath;
+    }
+
+    /**
+     * Returns the backfill for this run, or null if the records are not processed in chunks.
+     */
+    @Nullable
+    public SCD2Backfill getBackfill() {
+      if (backfillChunks == null) {
+        return null;
+      }
+      return new SCD2Backfill(backfillCheckpointPath, backfillChunks,
+                              backfillChunksPerRun == null ? 1 : backfillChunksPerRun);
+    }
+
     public Set<String> getBlacklist() {
       return getFields(BLACKLIST, blacklist);
     }
@@ -251,6 +519,24 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
         }
       }
 
+      if (!containsMacro(SURROGATE_KEY_FIELD) && surrogateKeyField != null) {
+        Schema.Field field = actualSchema.getField(surrogateKeyField);
+        if (field != null) {
+          Schema schema = field.getSchema();
+          Schema.Type fieldType = schema.isNullable() ? schema.getNonNullable().getType() : schema.getType();
+          if (fieldType != Schema.Type.LONG) {
+            failureCollector.addFailure(String.format("The %s field '%s' is not long type in the input schema.",
+                                                      SURROGATE_KEY_FIELD, surrogateKeyField), null)
+              .withConfigElement(SURROGATE_KEY_FIELD, surrogateKeyField);
+          }
+        }
+      }
+
+      if (!containsMacro(MAX_BUFFERED_VERSIONS) && maxBufferedVersions != null && maxBufferedVersions < 1) {
+        failureCollector.addFailure(String.format("The %s must be at least 1.", MAX_BUFFERED_VERSIONS), null)
+          .withConfigProperty(MAX_BUFFERED_VERSIONS);
+      }
+
       if (!containsMacro(END_DATE_FIELD)) {
         Schema.Field field = actualSchema.getField(endDateField);
         if (field != null) {
@@ -266,21 +552,247 @@ public class SCD2Plugin extends SparkCompute<StructuredRecord, StructuredRecord>
       }
     }
 
+    void validate(Collection<Schema> inputSchemas, FailureCollector failureCollector) {
+      validateBackfill(failureCollector);
+      for (Schema inputSchema : inputSchemas) {
+        validate(inputSchema, failureCollector);
+      }
+
+      if (!containsMacro(SURROGATE_KEY_FIELD) && surrogateKeyField != null && !containsMacro(NUM_PARTITIONS) &&
+        getNumPartitions() > SurrogateKeyGenerator.getMaxPartitions()) {
+        failureCollector.addFailure(
+          String.format("The %s can be at most %d when the %s is specified.", NUM_PARTITIONS,
+                        SurrogateKeyGenerator.getMaxPartitions(), SURROGATE_KEY_FIELD), null)
+          .withConfigProperty(NUM_PARTITIONS);
+      }
+
+      Schema mergedSchema = null;
+      try {
+        mergedSchema = mergeSchemas(inputSchemas);
+      } catch (IllegalArgumentException e) {
+        failureCollector.addFailure(e.getMessage(), "Make sure fields with the same name have the same type " +
+                                                      "in all the inputs.");
+      }
+      // the current value of a field that only exists in some of the inputs is taken from the merged schema
+      validateCurrentValueFields(mergedSchema, failureCollector);
+    }
+
+    private void validateCurrentValueFields(@Nullable Schema mergedSchema, FailureCollector failureCollector) {
+      if (containsMacro(CURRENT_VALUE_FIELDS)) {
+        return;
+      }
+
+      Map<String, String> fields;
+      try {
+        fields = getCurrentValueFields();
+      } catch (IllegalArgumentException e) {
+        failureCollector.addFailure(e.getMessage(), null).withConfigProperty(CURRENT_VALUE_FIELDS);
+        return;
+      }
+      for (Map.Entry<String, String> field : fields.entrySet()) {
+        if (mergedSchema != null && mergedSchema.getField(field.getKey()) == null) {
+          failureCollector.addFailure(String.format("The %s field '%s' does not exist in any input schema.",
+                                                    CURRENT_VALUE_FIELDS, field.getKey()), null)
+            .withConfigElement(CURRENT_VALUE_FIELDS, field.getKey() + ":" + field.getValue());
+        }
+        if (field.getValue().equals(key) || field.getValue().equals(startDateField) ||
+          field.getValue().equals(endDateField) || field.getValue().equals(surrogateKeyField)) {
+          failureCollector.addFailure(String.format("The %s field '%s' can not be the key, start date, end date " +
+                                                      "or surrogate key field.",
+                                                    CURRENT_VALUE_FIELDS, field.getValue()), null)
+            .withConfigElement(CURRENT_VALUE_FIELDS, field.getKey() + ":" + field.getValue());
+        }
+      }
+    }
+
+    private void validateBackfill(FailureCollector failureCollector) {
+      if (containsMacro(BACKFILL_CHUNKS) || backfillChunks == null) {
+        return;
+      }
+
+      if (backfillChunks < 1) {
+        failureCollector.addFailure(String.format("The %s must be at least 1.", BACKFILL_CHUNKS), null)
+          .withConfigProperty(BACKFILL_CHUNKS);
+      }
+      if (!containsMacro(BACKFILL_CHUNKS_PER_RUN) && backfillChunksPerRun != null && backfillChunksPerRun < 1) {
+        failureCollector.addFailure(String.format("The %s must be at least 1.", BACKFILL_CHUNKS_PER_RUN), null)
+          .withConfigProperty(BACKFILL_CHUNKS_PER_RUN);
+      }
+      if (!containsMacro(BACKFILL_CHECKPOINT_PATH) && backfillCheckpointPath == null) {
+        failureCollector.addFailure(String.format("The %s must be specified when the %s is specified.",
+                                                  BACKFILL_CHECKPOINT_PATH, BACKFILL_CHUNKS), null)
+          .withConfigProperty(BACKFILL_CHECKPOINT_PATH);
+      }
+    }
+
+    /**
+     * Returns the output schema for the union of the given input schemas, or null if any of them is unknown.
+     */
+    @Nullable
+    public Schema getOutputSchema(Collection<Schema> inputSchemas) {
+      return getOutputSchema(mergeSchemas(inputSchemas));
+    }
+
     @Nullable
     public Schema getOutputSchema(@Nullable Schema inputSchema) {
       if (inputSchema == null) {
         return null;
       }
 
-      if (!containsMacro(END_DATE_FIELD) && inputSchema.getField(endDateField) != null) {
-        return inputSchema;
+      List<Schema.Field> fields = new ArrayList<>(inputSchema.getFields());
+      if (containsMacro(END_DATE_FIELD) || inputSchema.getField(endDateField) == null) {
+        Schema endSchema = !containsMacro(START_DATE_FIELD) ? inputSchema.getField(startDateField).getSchema() :
+                             Schema.of(Schema.LogicalType.TIMESTAMP_MICROS);
+        fields.add(Schema.Field.of(endDateField, endSchema));
+      }
+      String surrogateKeyField = getSurrogateKeyField();
+      if (surrogateKeyField != null && inputSchema.getField(surrogateKeyField) == null) {
+        fields.add(Schema.Field.of(surrogateKeyField, Schema.of(Schema.Type.LONG)));
+      }
+      for (Map.Entry<String, String> field : getCurrentValueFields().entrySet()) {
+        Schema.Field valueField = inputSchema.getField(field.getKey());
+        if (valueField != null && inputSchema.getField(field.getValue()) == null) {
+          Schema valueSchema = valueField.getSchema();
+          fields.add(Schema.Field.of(field.getValue(), valueSchema.isNullable() ? valueSchema :
+            Schema.nullableOf(valueSchema)));
+        }
       }
 
-      List<Schema.Field> fields = new ArrayList<>(inputSchema.getFields());
-      Schema endSchema = !containsMacro(START_DATE_FIELD) ? inputSchema.getField(startDateField).getSchema() :
-                           Schema.of(Schema.LogicalType.TIMESTAMP_MICROS);
-      fields.add(Schema.Field.of(endDateField, endSchema));
+      if (fields.size() == inputSchema.getFields().size()) {
+        return inputSchema;
+      }
       return Schema.recordOf(inputSchema.getRecordName(), fields);
     }
+
+    /**
+     * Merges the input schemas into one schema containing the fields of all of them. A field that is nullable in
+     * one of the inputs, or that does not exist in one of the inputs, is nullable in the merged schema.
+     */
+    @Nullable
+    private static Schema mergeSchemas(Collection<Schema> inputSchemas) {
+      if (inputSchemas.isEmpty()) {
+        return null;
+      }
+
+      Schema first = null;
+      boolean same = true;
+      for (Schema inputSchema : inputSchemas) {
+        if (inputSchema == null) {
+          return null;
+        }
+        if (first == null) {
+          first = inputSchema;
+        }
+        same = same && first.equals(inputSchema);
+      }
+      if (same) {
+        return first;
+      }
+
+      Map<String, Schema> fields = new LinkedHashMap<>();
+      Set<String> nullableFields = new HashSet<>();
+      for (Schema inputSchema : inputSchemas) {
+        for (Schema.Field field : inputSchema.getFields()) {
+          String fieldName = field.getName();
+          Schema fieldSchema = field.getSchema();
+          if (fieldSchema.isNullable()) {
+            nullableFields.add(fieldName);
+            fieldSchema = fieldSchema.getNonNullable();
+          }
+
+          Schema existing = fields.putIfAbsent(fieldName, fieldSchema);
+          if (existing == null && inputSchema != first) {
+            // the field does not exist in the inputs seen so far
+            nullableFields.add(fieldName);
+          } else if (existing != null && !existing.equals(fieldSchema)) {
+            throw new IllegalArgumentException(
+              String.format("The field '%s' has different types in the input schemas.", fieldName));
+          }
+        }
+
+        for (String fieldName : fields.keySet()) {
+          if (inputSchema.getField(fieldName) == null) {
+            nullableFields.add(fieldName);
+          }
+        }
+      }
+
+      List<Schema.Field> mergedFields = new ArrayList<>();
+      for (Map.Entry<String, Schema> field : fields.entrySet()) {
+        Schema fieldSchema = nullableFields.contains(field.getKey()) ?
+          Schema.nullableOf(field.getValue()) : field.getValue();
+        mergedFields.add(Schema.Field.of(field.getKey(), fieldSchema));
+      }
+      return Schema.recordOf(first.getRecordName(), mergedFields);
+    }
+
+    /**
+     * Builder for a conf used outside of a pipeline. The backfill and statistics properties are not set,
+     * since they are only used by the plugin.
+     */
+    public static final class Builder {
+      private final String key;
+      private final String startDateField;
+      private final String endDateField;
+      private boolean deduplicate;
+      private boolean fillInNull;
+      private String blacklist;
+      private String surrogateKeyField;
+      private boolean collapseReplays;
+      private String currentValueFields;
+      private Integer maxBufferedVersions;
+
+      private Builder(String key, String startDateField, String endDateField) {
+        this.key = key;
+        this.startDateField = startDateField;
+        this.endDateField = endDateField;
+      }
+
+      public Builder setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+      }
+
+      public Builder setFillInNull(boolean fillInNull) {
+        this.fillInNull = fillInNull;
+        return this;
+      }
+
+      public Builder setBlacklist(@Nullable String blacklist) {
+        this.blacklist = blacklist;
+        return this;
+      }
+
+      public Builder setSurrogateKeyField(@Nullable String surrogateKeyField) {
+        this.surrogateKeyField = surrogateKeyField;
+        return this;
+      }
+
+      public Builder setCollapseReplays(boolean collapseReplays) {
+        this.collapseReplays = collapseReplays;
+        return this;
+      }
+
+      public Builder setCurrentValueFields(@Nullable String currentValueFields) {
+        this.currentValueFields = currentValueFields;
+        return this;
+      }
+
+      public Builder setMaxBufferedVersions(int maxBufferedVersions) {
+        if (maxBufferedVersions < 1) {
+          throw new IllegalArgumentException(
+            String.format("The %s must be at least 1.", MAX_BUFFERED_VERSIONS));
+        }
+        this.maxBufferedVersions = maxBufferedVersions;
+        return this;
+      }
+
+      public Conf build() {
+        Conf conf = new Conf(key, startDateField, endDateField, deduplicate, fillInNull, blacklist,
+                             surrogateKeyField, collapseReplays, currentValueFields);
+        conf.maxBufferedVersions = maxBufferedVersions;
+        return conf;
+      }
+    }
   }
 }
@@ -17,60 +17,141 @@
 package io.cdap.plugin.scd2;
 
 import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
 import org.apache.spark.HashPartitioner;
+import org.apache.spark.Partitioner;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.Function;
+import org.apache.spark.storage.StorageLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
 
-import java.io.Serializable;
-import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * The scd2 processor. This class is used to mitigate the validation issue.
  */
 public final class SCD2Processor {
+  private static final Logger LOG = LoggerFactory.getLogger(SCD2Processor.class);
+  // number of records sampled for the cost estimate
+  private static final int SAMPLE_SIZE = 10000;
+  // upper bound of the estimated size of the records of the sampled keys, which are collected on the driver
+  private static final long MAX_RECORD_SAMPLE_BYTES = 32L * 1024 * 1024;
+  private static final int NUM_HEAVY_KEYS = 10;
   private final SCD2Plugin.Conf conf;
+  private final Schema outputSchema;
+  private final long runStartTime;
+  private final Set<Integer> backfillChunks;
+  private final String statisticsPath;
 
-  public SCD2Processor(SCD2Plugin.Conf conf) {
+  /**
+   * Creates the processor. The backfill chunks are the chunks picked for this run, they are required if the
+   * records are processed in chunks. The statistics path is the directory of the statistics of this run.
+   */
+  public SCD2Processor(SCD2Plugin.Conf conf, @Nullable Schema outputSchema, long runStartTime,
+                       @Nullable Set<Integer> backfillChunks, @Nullable String statisticsPath) {
     this.conf = conf;
+    this.outputSchema = outputSchema;
+    this.runStartTime = runStartTime;
+    this.backfillChunks = backfillChunks;
+    this.statisticsPath = statisticsPath;
   }
 
   JavaRDD<StructuredRecord> process(JavaRDD<StructuredRecord> javaRDD) {
-    return javaRDD.mapToPair(new RecordToKeyRecordPairFunction(conf.getKey(), conf.getStartDateField()))
-             .repartitionAndSortWithinPartitions(new HashPartitioner(conf.getNumPartitions()),
-                                                 new KeyComparator())
+    javaRDD = filterBackfill(javaRDD);
+    Partitioner partitioner = conf.rangePartitioning() ?
+      KeyRangePartitioner.create(javaRDD, conf.getKey(), conf.getNumPartitions()) :
+      new HashPartitioner(conf.getNumPartitions());
+    return javaRDD.mapToPair(new RecordToKeyRecordPairFunction(conf.getKey(), conf.getStartDateField(),
+                                                        conf.collapseReplays() ? conf.getComputedFields() : null))
+             .repartitionAndSortWithinPartitions(partitioner, new KeyComparator())
              // records are now sorted by key and start date (desc). ex: r1, r2, r3, r4
              // we need to walk the records in order and update the end time of r2 to be start time of r1 - 1.
-             .mapPartitions(new SCD2FlatMapFunction(conf));
+             .mapPartitions(new SCD2FlatMapFunction(conf, outputSchema, runStartTime, statisticsPath));
   }
 
   /**
-   * Compare the scd2key, first compare the key and then compare the start date.
+   * Estimates the cost of processing the given records from samples collected on the driver, and logs it. The
+   * records are not processed.
    */
-  public static class KeyComparator implements Comparator<SCD2Key>, Serializable {
+  SCD2CostEstimator.Estimate estimate(JavaRDD<StructuredRecord> javaRDD) {
+    // the input is read several times, keep it rather than reading it from the source each time
+    JavaRDD<StructuredRecord> input = filterBackfill(javaRDD).persist(StorageLevel.MEMORY_AND_DISK());
+    try {
+      long count = input.count();
+      String keyField = conf.getKey();
+      List<Comparable> keySample = input.map(record -> (Comparable) record.get(keyField))
+        .takeSample(false, SAMPLE_SIZE, 0L);
+      List<StructuredRecord> recordSample = sampleKeys(input, count);
 
-    @Override
-    public int compare(SCD2Key k1, SCD2Key k2) {
-      Comparable k1Key = k1.getKey();
-      Comparable k2Key = k2.getKey();
-      if (k1Key == k2Key && k1Key == null) {
-        return 0;
+      SCD2CostEstimator.Estimate estimate =
+        new SCD2CostEstimator(conf, NUM_HEAVY_KEYS).estimate(count, keySample, recordSample);
+      LOG.info("Cost estimate: {}.", estimate);
+      if (estimate.isSkewed()) {
+        LOG.warn("The heaviest key has more records than fit in a partition of {} bytes, increasing the number " +
+                   "of partitions will not reduce the size of its partition.",
+                 SCD2CostEstimator.TARGET_PARTITION_BYTES);
       }
+      return estimate;
+    } finally {
+      input.unpersist();
+    }
+  }
 
-      if (k1Key == null) {
-        return -1;
-      }
+  /**
+   * Returns all the records of a sample of the keys. The keys are sampled by hash, about {@link #SAMPLE_SIZE} records
+   * worth of them. The sample is capped by the estimated size of the records, and only whole keys are kept, since a
+   * key with only part of its versions would skew the versions per key and the dedup ratio.
+   */
+  private List<StructuredRecord> sampleKeys(JavaRDD<StructuredRecord> input, long count) {
+    String keyField = conf.getKey();
+    // the plain hash is used so that the sample does not depend on the backfill chunks
+    int numSampledChunks = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, count / SAMPLE_SIZE));
+    JavaRDD<StructuredRecord> sampled =
+      input.filter(record -> Math.floorMod(Objects.hashCode(record.get(keyField)), numSampledChunks) == 0);
 
-      if (k2Key == null) {
-        return 1;
+    // the size of each sampled key is computed on the executors, so that only the keys that fit are collected
+    List<Tuple2<Object, Long>> keySizes = sampled
+      .mapToPair(record -> new Tuple2<Object, Long>(record.get(keyField), SCD2CostEstimator.estimateSize(record)))
+      .reduceByKey(Long::sum)
+      .collect();
+    Set<Object> keys = new HashSet<>();
+    long sampleBytes = 0L;
+    for (Tuple2<Object, Long> keySize : keySizes) {
+      sampleBytes += keySize._2();
+      if (sampleBytes > MAX_RECORD_SAMPLE_BYTES) {
+        LOG.info("The sampled keys are larger than {} bytes, only {} of the {} sampled keys are used.",
+                 MAX_RECORD_SAMPLE_BYTES, keys.size(), keySizes.size());
+        break;
       }
+      keys.add(keySize._1());
+    }
+    return sampled.filter(record -> keys.contains(record.get(keyField))).collect();
+  }
 
-      int cmp = k1Key.compareTo(k2Key);
-      if (cmp != 0) {
-        return cmp;
-      }
+  private JavaRDD<StructuredRecord> filterBackfill(JavaRDD<StructuredRecord> javaRDD) {
+    SCD2Backfill backfill = conf.getBackfill();
+    if (backfill == null) {
+      return javaRDD;
+    }
 
-      return Long.compare(k1.getStartDate(), k2.getStartDate());
+    // only the chunks of this run are shuffled
+    if (backfillChunks.isEmpty()) {
+      LOG.info("All backfill chunks are done, no records will be processed.");
+    } else {
+      LOG.info("Processing backfill chunks {}.", backfillChunks);
     }
+    return javaRDD.filter(new ChunkFilterFunction(conf.getKey(), backfill.getNumChunks(), backfillChunks));
+  }
+
+  /**
+   * The {@link SCD2KeyComparator} used to sort the records within the spark partitions.
+   */
+  public static class KeyComparator extends SCD2KeyComparator {
   }
 }
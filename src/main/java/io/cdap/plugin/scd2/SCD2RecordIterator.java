@@ -0,0 +1,283 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The scd2 record iterator, it keeps track of cur, prev, next from the given iterator of records sorted by key and
+ * start date. It does not depend on spark, so the same logic is used by spark and the {@link SCD2Engine}.
+ */
+public class SCD2RecordIterator extends AbstractIterator<StructuredRecord> implements Closeable {
+  // 9999-12-31 00:00:00 timestamp in micro seconds
+  static final long ACTIVE_TS = 253402214400000000L;
+  private final Iterator<Map.Entry<SCD2Key, StructuredRecord>> records;
+  private final Table<Object, String, Object> valTable;
+  private final SCD2Plugin.Conf conf;
+  private final Set<String> blacklist;
+  private final String surrogateKeyField;
+  private final SurrogateKeyGenerator keyGenerator;
+  // fields whose values are computed by the iterator instead of copied from the input
+  private final Set<String> computedFields;
+  private final Map<String, String> currentValueFields;
+  private final VersionBuffer versionBuffer;
+  private Iterator<StructuredRecord.Builder> bufferedVersions;
+  // values of the current value fields of the last computed version, they are the current values once the last
+  // version of the key is computed
+  private final Map<String, Object> lastValues;
+  private Map<String, Object> currentValues;
+  // projections by schema, there is one per distinct input schema. The projection of the last schema instance is
+  // kept as well, since consecutive records usually share the schema instance
+  private final Map<Schema, RecordProjection> projections;
+  private Schema lastSchema;
+  private RecordProjection lastProjection;
+  private Schema outputSchema;
+  private Map.Entry<SCD2Key, StructuredRecord> cur;
+  private Map.Entry<SCD2Key, StructuredRecord> prev;
+  private Map.Entry<SCD2Key, StructuredRecord> next;
+
+  /**
+   * Creates the iterator. If the output schema is null, it is derived from the schema of the first record. The
+   * generator for the surrogate keys of new versions is required if the surrogate key field is set.
+   */
+  public SCD2RecordIterator(Iterator<Map.Entry<SCD2Key, StructuredRecord>> records, SCD2Plugin.Conf conf,
+                            @Nullable Schema outputSchema, @Nullable SurrogateKeyGenerator keyGenerator) {
+    this(records, conf, outputSchema, keyGenerator, null);
+  }
+
+  /**
+   * Creates the iterator that spills the versions of keys with many versions to the given directory, or to the
+   * default temporary directory if it is null. The iterator must be closed if it is not read to the end.
+   */
+  public SCD2RecordIterator(Iterator<Map.Entry<SCD2Key, StructuredRecord>> records, SCD2Plugin.Conf conf,
+                            @Nullable Schema outputSchema, @Nullable SurrogateKeyGenerator keyGenerator,
+                            @Nullable File spillDirectory) {
+    this.records = conf.collapseReplays() ? new ReplayCollapsingIterator(records, conf.getComputedFields()) : records;
+    this.conf = conf;
+    this.blacklist = conf.getBlacklist();
+    this.surrogateKeyField = conf.getSurrogateKeyField();
+    this.keyGenerator = keyGenerator;
+    this.computedFields = conf.getComputedFields();
+    this.currentValueFields = conf.getCurrentValueFields();
+    this.versionBuffer = currentValueFields.isEmpty() ? null :
+      new VersionBuffer(conf.getMaxBufferedVersions(), spillDirectory);
+    this.lastValues = new HashMap<>();
+    this.valTable = HashBasedTable.create();
+    this.projections = new HashMap<>();
+    this.outputSchema = outputSchema;
+  }
+
+  @Override
+  protected StructuredRecord computeNext() {
+    if (versionBuffer == null) {
+      StructuredRecord.Builder builder = computeVersion();
+      return builder == null ? endOfData() : builder.build();
+    }
+
+    try {
+      // buffer the versions of each key, the current values are only known once the last version is computed
+      while (bufferedVersions == null || !bufferedVersions.hasNext()) {
+        StructuredRecord.Builder builder = computeVersion();
+        if (builder == null) {
+          versionBuffer.close();
+          return endOfData();
+        }
+
+        versionBuffer.add(builder);
+        if (next == null || !next.getKey().equals(cur.getKey())) {
+          currentValues = new HashMap<>(lastValues);
+          bufferedVersions = versionBuffer.drain();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to buffer the versions of key " + cur.getKey().getKey(), e);
+    }
+
+    // the versions are only built once the current values are set
+    StructuredRecord.Builder builder = bufferedVersions.next();
+    for (Map.Entry<String, String> field : currentValueFields.entrySet()) {
+      builder.set(field.getValue(), currentValues.get(field.getKey()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Deletes the spilled versions, if any.
+   */
+  @Override
+  public void close() {
+    if (versionBuffer != null) {
+      versionBuffer.close();
+    }
+  }
+
+  @Nullable
+  private StructuredRecord.Builder computeVersion() {
+    // if the records does not have value, but next still have a value, we still need to process it
+    if (!records.hasNext() && next == null) {
+      return null;
+    }
+
+    prev = cur;
+    cur = next != null ? next : records.next();
+    next = records.hasNext() ? records.next() : null;
+
+    boolean isDiff = false;
+    // surrogate key of the versions removed as duplicates, so that the remaining version keeps it
+    Object surrogateKey = null;
+    // deduplicate the result
+    while (conf.deduplicate() && !isDiff) {
+      if (next == null || !next.getKey().equals(cur.getKey())) {
+        break;
+      }
+
+      RecordProjection curProjection = getProjection(cur.getValue());
+      RecordProjection nextProjection = getProjection(next.getValue());
+      List<Schema.Field> fields = outputSchema.getFields();
+      for (int i = 0; i < fields.size(); i++) {
+        String fieldName = fields.get(i).getName();
+        // the input end date is still compared, as it always has been
+        if (blacklist.contains(fieldName) ||
+          (computedFields.contains(fieldName) && !fieldName.equals(conf.getEndDateField()))) {
+          continue;
+        }
+
+        // check if there is difference between next record and cur record
+        Object value = curProjection.get(cur.getValue(), i);
+        Object nextVal = nextProjection.get(next.getValue(), i);
+        if ((nextVal == null) != (value == null) || (value != null && !value.equals(nextVal))) {
+          isDiff = true;
+          break;
+        }
+      }
+
+      if (!isDiff) {
+        if (surrogateKey == null) {
+          surrogateKey = getSurrogateKey(cur.getValue());
+        }
+        prev = cur;
+        cur = next != null ? next : records.next();
+        next = records.hasNext() ? records.next() : null;
+      }
+    }
+
+    // if key changes, clean up the table to free memory
+    if (prev != null && !prev.getKey().equals(cur.getKey())) {
+      valTable.row(prev.getKey().getKey()).clear();
+    }
+
+    return computeRecord(cur.getKey().getKey(),
+                         prev != null && prev.getKey().equals(cur.getKey()) ? prev.getValue() : null,
+                         cur.getValue(),
+                         next != null && next.getKey().equals(cur.getKey()) ? next.getValue() : null,
+                         surrogateKey);
+  }
+
+  private StructuredRecord.Builder computeRecord(Object key, @Nullable StructuredRecord prev, StructuredRecord cur,
+                                         @Nullable StructuredRecord next, @Nullable Object surrogateKey) {
+    RecordProjection projection = getProjection(cur);
+    StructuredRecord.Builder builder = StructuredRecord.builder(outputSchema);
+
+    List<Schema.Field> fields = outputSchema.getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      String fieldName = fields.get(i).getName();
+      // computed fields are set below, and they may not exist in the input
+      if (computedFields.contains(fieldName)) {
+        continue;
+      }
+      Object value = projection.get(cur, i);
+
+      // fill in null from previous record
+      if (conf.fillInNull() && value == null) {
+        value = valTable.get(key, fieldName);
+      }
+      set(builder, fieldName, value);
+      if (conf.fillInNull() && value != null) {
+        valTable.put(key, fieldName, value);
+      }
+    }
+
+    long endDate;
+    if (next == null) {
+      endDate = ACTIVE_TS;
+    } else {
+      Long date = next.get(conf.getStartDateField());
+      endDate = date == null ? ACTIVE_TS : date - 1L;
+    }
+    set(builder, conf.getEndDateField(), endDate);
+
+    if (surrogateKeyField != null) {
+      // keep the surrogate key of existing versions, only new versions get a new one
+      Object curSurrogateKey = getSurrogateKey(cur);
+      if (curSurrogateKey != null) {
+        surrogateKey = curSurrogateKey;
+      } else if (surrogateKey == null) {
+        surrogateKey = keyGenerator.next();
+      }
+      set(builder, surrogateKeyField, surrogateKey);
+    }
+    return builder;
+  }
+
+  private void set(StructuredRecord.Builder builder, String fieldName, @Nullable Object value) {
+    builder.set(fieldName, value);
+    if (currentValueFields.containsKey(fieldName)) {
+      lastValues.put(fieldName, value);
+    }
+  }
+
+  @Nullable
+  private Object getSurrogateKey(StructuredRecord record) {
+    if (surrogateKeyField == null || record.getSchema().getField(surrogateKeyField) == null) {
+      return null;
+    }
+    return record.get(surrogateKeyField);
+  }
+
+  private RecordProjection getProjection(StructuredRecord record) {
+    Schema schema = record.getSchema();
+    if (schema == lastSchema) {
+      return lastProjection;
+    }
+
+    if (outputSchema == null) {
+      outputSchema = conf.getOutputSchema(schema);
+    }
+    RecordProjection projection = projections.get(schema);
+    if (projection == null) {
+      projection = new RecordProjection(schema, outputSchema);
+      projections.put(schema, projection);
+    }
+    lastSchema = schema;
+    lastProjection = projection;
+    return projection;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Allocates the surrogate keys of the {@link SCD2Engine} calls in one jvm. The calls of the same 10 second period
+ * share one counter, so the keys never get ahead of the clock, no matter how often the engine is called. The previous
+ * allocator, like the one of a jvm that was restarted, may have generated keys in the period the allocator is created
+ * in, so the first call waits for the next period.
+ */
+final class SurrogateKeyAllocator {
+  private final LongSupplier clock;
+  private final LongConsumer sleeper;
+  private final long startPeriod;
+  private long period;
+  private AtomicLong counter;
+
+  SurrogateKeyAllocator() {
+    this(System::currentTimeMillis, SurrogateKeyAllocator::sleep);
+  }
+
+  SurrogateKeyAllocator(LongSupplier clock, LongConsumer sleeper) {
+    this.clock = clock;
+    this.sleeper = sleeper;
+    this.startPeriod = SurrogateKeyGenerator.getTimePeriod(clock.getAsLong());
+    this.period = startPeriod;
+    this.counter = new AtomicLong();
+  }
+
+  /**
+   * Returns the generator for the keys of a call, it can be shared by the threads of the call.
+   */
+  synchronized SurrogateKeyGenerator newGenerator() {
+    long current = SurrogateKeyGenerator.getTimePeriod(clock.getAsLong());
+    while (current <= startPeriod) {
+      sleeper.accept(getStartTime(startPeriod + 1) - clock.getAsLong());
+      current = SurrogateKeyGenerator.getTimePeriod(clock.getAsLong());
+    }
+    // the period does not go back if the clock does
+    if (current > period) {
+      period = current;
+      counter = new AtomicLong();
+    }
+    return new SurrogateKeyGenerator(getStartTime(period), counter);
+  }
+
+  private static long getStartTime(long period) {
+    return SurrogateKeyGenerator.EPOCH + period * SurrogateKeyGenerator.TIME_UNIT_MILLIS;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(Math.max(1L, millis));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the next period of surrogate keys.", e);
+    }
+  }
+}
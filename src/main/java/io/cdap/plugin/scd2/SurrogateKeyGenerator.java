@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique surrogate keys without any coordination between partitions. The 63 bits of a positive key are
+ * split into three fields: the run time, the partition index and a counter. The run time is the number of 10 second
+ * periods between 2020 and the run start time, which lasts until 2105, so runs that start at least 10 seconds apart
+ * never generate the same key. The partition index takes as many bits as the number of partitions needs, and the
+ * counter gets the remaining bits. Generators of the same time period can also share a counter without a partition
+ * index, the generator is thread safe.
+ */
+public class SurrogateKeyGenerator {
+  // 2020-01-01 00:00:00 UTC in milli seconds
+  static final long EPOCH = 1577836800000L;
+  static final long TIME_UNIT_MILLIS = 10000L;
+  static final int TIME_BITS = 28;
+  // at most 65536 partitions, so that each partition has at least 2^19 keys per run
+  static final int MAX_PARTITION_BITS = 16;
+  // bits of the partition index and the counter
+  private static final int RUN_BITS = 63 - TIME_BITS;
+  private final long offset;
+  private final long maxCounter;
+  private final int partition;
+  private final AtomicLong counter;
+
+  public SurrogateKeyGenerator(long runStartTime, int partition, int numPartitions) {
+    this(runStartTime, partition, numPartitions, new AtomicLong());
+  }
+
+  /**
+   * Creates a generator that takes its keys from the given counter, which is shared by all the generators of the
+   * same time period, like the generators of the {@link SurrogateKeyAllocator}.
+   */
+  SurrogateKeyGenerator(long runStartTime, AtomicLong counter) {
+    this(runStartTime, 0, 1, counter);
+  }
+
+  private SurrogateKeyGenerator(long runStartTime, int partition, int numPartitions, AtomicLong counter) {
+    long time = getTimePeriod(runStartTime);
+    if (runStartTime < EPOCH || time >= 1L << TIME_BITS) {
+      throw new IllegalArgumentException(
+        String.format("Run start time %d is out of the range of the surrogate keys.", runStartTime));
+    }
+    int partitionBits = getPartitionBits(numPartitions);
+    if (partitionBits > MAX_PARTITION_BITS) {
+      throw new IllegalArgumentException(
+        String.format("Surrogate keys support at most %d partitions.", getMaxPartitions()));
+    }
+    int counterBits = RUN_BITS - partitionBits;
+    this.offset = (time << RUN_BITS) | ((long) partition << counterBits);
+    this.maxCounter = 1L << counterBits;
+    this.partition = partition;
+    this.counter = counter;
+  }
+
+  /**
+   * Returns the 10 second period since 2020 of the given time, which determines the range of the keys.
+   */
+  static long getTimePeriod(long time) {
+    return (time - EPOCH) / TIME_UNIT_MILLIS;
+  }
+
+  /**
+   * Returns the maximum number of partitions that can generate surrogate keys.
+   */
+  public static int getMaxPartitions() {
+    return 1 << MAX_PARTITION_BITS;
+  }
+
+  /**
+   * Returns the maximum number of surrogate keys a partition can generate in a run.
+   */
+  public static long getMaxKeysPerPartition(int numPartitions) {
+    return 1L << (RUN_BITS - getPartitionBits(numPartitions));
+  }
+
+  private static int getPartitionBits(int numPartitions) {
+    return numPartitions <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(numPartitions - 1);
+  }
+
+  public long next() {
+    long count = counter.getAndIncrement();
+    if (count >= maxCounter) {
+      throw new IllegalStateException(
+        String.format("Partition %d generated more than %d surrogate keys, which is the limit of a run.",
+                      partition, maxCounter));
+    }
+    return offset | count;
+  }
+}
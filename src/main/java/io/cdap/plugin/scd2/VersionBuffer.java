@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import com.google.common.collect.AbstractIterator;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Buffers the versions of a key until the last version of the key is known. Versions are kept in memory as record
+ * builders up to the given number of records, so that they can still be completed before they are built. The older
+ * versions are built and spilled to a local file after that, and they are read back as builders. Only the field
+ * values are spilled, since all the versions have the same schema. The spill files are deleted once they are read,
+ * or when the buffer is closed.
+ */
+public class VersionBuffer implements Closeable {
+  // reset the object stream regularly, otherwise it keeps a reference to every value written
+  private static final int RESET_INTERVAL = 1000;
+  private final int maxInMemory;
+  private final File directory;
+  private final List<StructuredRecord.Builder> builders;
+  private Schema spillSchema;
+  private File spillFile;
+  private ObjectOutputStream spillOutput;
+  private int spilled;
+  private File readFile;
+  private ObjectInputStream readInput;
+
+  public VersionBuffer(int maxInMemory) {
+    this(maxInMemory, null);
+  }
+
+  /**
+   * Creates the buffer that spills to the given directory, or to the default temporary directory if it is null.
+   */
+  public VersionBuffer(int maxInMemory, @Nullable File directory) {
+    this.maxInMemory = maxInMemory;
+    this.directory = directory;
+    this.builders = new ArrayList<>();
+  }
+
+  public void add(StructuredRecord.Builder builder) throws IOException {
+    if (builders.size() >= maxInMemory) {
+      spill();
+    }
+    builders.add(builder);
+  }
+
+  /**
+   * Returns all the versions in the buffer in the order they were added, and empties the buffer.
+   */
+  public Iterator<StructuredRecord.Builder> drain() throws IOException {
+    Iterator<StructuredRecord.Builder> inMemory = new ArrayList<>(builders).iterator();
+    builders.clear();
+    // the versions of the previous key are not needed anymore, even if they were not all read
+    closeRead();
+    if (spillOutput == null) {
+      return inMemory;
+    }
+
+    spillOutput.close();
+    spillOutput = null;
+    readFile = spillFile;
+    readInput = new ObjectInputStream(new BufferedInputStream(new FileInputStream(readFile)));
+    ObjectInputStream input = readInput;
+    File file = readFile;
+    Schema schema = spillSchema;
+    int count = spilled;
+    spillFile = null;
+    spilled = 0;
+    return new AbstractIterator<StructuredRecord.Builder>() {
+      private int read;
+
+      @Override
+      protected StructuredRecord.Builder computeNext() {
+        if (read < count) {
+          read++;
+          try {
+            return toBuilder(schema, (Object[]) input.readObject());
+          } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Failed to read the spilled versions from " + file, e);
+          }
+        }
+        if (read == count) {
+          read++;
+          closeRead();
+        }
+        return inMemory.hasNext() ? inMemory.next() : endOfData();
+      }
+    };
+  }
+
+  /**
+   * Deletes the spill files, including the ones that are still being read.
+   */
+  @Override
+  public void close() {
+    if (spillOutput != null) {
+      closeAndDelete(spillOutput, spillFile);
+      spillOutput = null;
+      spillFile = null;
+    }
+    closeRead();
+  }
+
+  private void closeRead() {
+    if (readInput != null) {
+      closeAndDelete(readInput, readFile);
+      readInput = null;
+      readFile = null;
+    }
+  }
+
+  private void spill() throws IOException {
+    if (spillOutput == null) {
+      spillFile = File.createTempFile("scd2-versions", ".spill", directory);
+      spillOutput = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+    }
+    for (StructuredRecord.Builder builder : builders) {
+      StructuredRecord record = builder.build();
+      spillSchema = record.getSchema();
+      List<Schema.Field> fields = spillSchema.getFields();
+      Object[] values = new Object[fields.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = toSerializable(record.get(fields.get(i).getName()));
+      }
+      spillOutput.writeObject(values);
+      spilled++;
+      if (spilled % RESET_INTERVAL == 0) {
+        spillOutput.reset();
+      }
+    }
+    builders.clear();
+  }
+
+  @Nullable
+  private static Object toSerializable(@Nullable Object value) {
+    if (value instanceof ByteBuffer) {
+      ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+    }
+    return value;
+  }
+
+  private static StructuredRecord.Builder toBuilder(Schema schema, Object[] values) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+    List<Schema.Field> fields = schema.getFields();
+    for (int i = 0; i < values.length; i++) {
+      builder.set(fields.get(i).getName(), values[i]);
+    }
+    return builder;
+  }
+
+  private static void closeAndDelete(Closeable stream, File file) {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      // nothing to do, the file is deleted anyway
+    }
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Test for key range statistics and partitioning
+ */
+public class KeyRangeStatisticsTest {
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testStatistics() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+
+    KeyRangeStatistics statistics = new KeyRangeStatistics("id", "startDate", "endDate");
+    statistics.add(StructuredRecord.builder(schema)
+                     .set("startDate", 5L).set("endDate", SCD2RecordIterator.ACTIVE_TS).build());
+    statistics.add(StructuredRecord.builder(schema).set("id", 3)
+                     .set("startDate", 10L).set("endDate", 19L).build());
+    statistics.add(StructuredRecord.builder(schema).set("id", 3)
+                     .set("startDate", 20L).set("endDate", SCD2RecordIterator.ACTIVE_TS).build());
+    statistics.add(StructuredRecord.builder(schema).set("id", 7)
+                     .set("startDate", 1L).set("endDate", SCD2RecordIterator.ACTIVE_TS).build());
+
+    File dir = new File(tmpFolder.newFolder(), "statistics");
+    statistics.write(KeyRangeStatistics.getRunPath(dir.getAbsolutePath(), "previous"), 3);
+    statistics.write(KeyRangeStatistics.getRunPath(dir.getAbsolutePath(), "first"), 3);
+    // each run writes to its own directory, so the runs of a backfill keep the statistics of each other
+    statistics.write(KeyRangeStatistics.getRunPath(dir.getAbsolutePath(), "second"), 3);
+    KeyRangeStatistics.delete(KeyRangeStatistics.getRunPath(dir.getAbsolutePath(), "second"));
+    Assert.assertFalse(new File(dir, "run-second").exists());
+    // a successful run replaces the output of the previous runs
+    KeyRangeStatistics.deleteOtherRuns(dir.getAbsolutePath(), "first");
+    Assert.assertFalse(new File(dir, "run-previous").exists());
+    Assert.assertTrue(new File(dir, "run-first").exists());
+
+    Properties properties = new Properties();
+    try (InputStream is = new FileInputStream(new File(dir, "run-first/partition-00003"))) {
+      properties.load(is);
+    }
+    Assert.assertEquals("3", properties.getProperty("partition"));
+    // null keys are not part of the key range
+    Assert.assertEquals("3", properties.getProperty("minKey"));
+    Assert.assertEquals("7", properties.getProperty("maxKey"));
+    Assert.assertEquals("1", properties.getProperty("minStartDate"));
+    Assert.assertEquals("20", properties.getProperty("maxStartDate"));
+    Assert.assertEquals("4", properties.getProperty("rowCount"));
+    Assert.assertEquals("3", properties.getProperty("activeRowCount"));
+  }
+
+  @Test
+  public void testBytesKeys() {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.BYTES)),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+
+    KeyRangeStatistics statistics = new KeyRangeStatistics("id", "startDate", "endDate");
+    for (byte[] key : new byte[][] { { 0, 16 }, { 1 }, { 0, -1 } }) {
+      statistics.add(StructuredRecord.builder(schema).set("id", ByteBuffer.wrap(key))
+                       .set("startDate", 0L).set("endDate", SCD2RecordIterator.ACTIVE_TS).build());
+    }
+
+    // bytes are compared as signed bytes
+    Properties properties = statistics.toProperties(0);
+    Assert.assertEquals("00ff", properties.getProperty("minKey"));
+    Assert.assertEquals("01", properties.getProperty("maxKey"));
+  }
+
+  @Test
+  public void testRangePartitioner() {
+    Comparable[] bounds = KeyRangePartitioner.getBounds(Arrays.asList(9, 1, 5, 5, 5, 5, 3, null, 7), 4);
+    Assert.assertArrayEquals(new Comparable[] {5, 7}, bounds);
+
+    KeyRangePartitioner partitioner = new KeyRangePartitioner(bounds);
+    Assert.assertEquals(3, partitioner.numPartitions());
+    Assert.assertEquals(0, partitioner.getPartition(new SCD2Key<Integer>(null, 0L)));
+    Assert.assertEquals(0, partitioner.getPartition(new SCD2Key<>(1, 0L)));
+    Assert.assertEquals(0, partitioner.getPartition(new SCD2Key<>(5, 10L)));
+    Assert.assertEquals(1, partitioner.getPartition(new SCD2Key<>(6, 0L)));
+    Assert.assertEquals(1, partitioner.getPartition(new SCD2Key<>(7, 0L)));
+    Assert.assertEquals(2, partitioner.getPartition(new SCD2Key<>(100, 0L)));
+  }
+}
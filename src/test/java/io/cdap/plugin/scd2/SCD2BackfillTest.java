@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * Test for SCD2 backfill
+ */
+public class SCD2BackfillTest {
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testPendingChunks() throws Exception {
+    File checkpoint = new File(tmpFolder.newFolder(), "checkpoint");
+    SCD2Backfill backfill = new SCD2Backfill(checkpoint.getAbsolutePath(), 5, 2);
+
+    Set<Integer> chunks = backfill.getPendingChunks();
+    Assert.assertEquals(ImmutableSet.of(0, 1), chunks);
+    // a failed run does not mark the chunks as done, so they are processed again
+    Assert.assertEquals(chunks, backfill.getPendingChunks());
+
+    backfill.markDone(chunks);
+    chunks = backfill.getPendingChunks();
+    Assert.assertEquals(ImmutableSet.of(2, 3), chunks);
+    backfill.markDone(chunks);
+    chunks = backfill.getPendingChunks();
+    Assert.assertEquals(ImmutableSet.of(4), chunks);
+    backfill.markDone(chunks);
+    Assert.assertTrue(backfill.getPendingChunks().isEmpty());
+  }
+
+  @Test
+  public void testOverlappingRuns() throws Exception {
+    File checkpoint = new File(tmpFolder.newFolder(), "checkpoint");
+    SCD2Backfill backfill = new SCD2Backfill(checkpoint.getAbsolutePath(), 5, 1);
+
+    // a retry starts while the first run is still going, it claims the next chunk instead of the same one
+    String first = backfill.startRun();
+    String retry = backfill.startRun();
+    Assert.assertEquals(ImmutableSet.of(0), backfill.getRunChunks(first));
+    Assert.assertEquals(ImmutableSet.of(1), backfill.getRunChunks(retry));
+
+    Assert.assertEquals(ImmutableSet.of(1), backfill.finishRun(retry, true));
+    Assert.assertEquals(ImmutableSet.of(0), backfill.finishRun(first, true));
+    Assert.assertEquals(ImmutableSet.of(2), backfill.getPendingChunks());
+
+    // a failed run releases its chunk, so the next run claims it again
+    String failed = backfill.startRun();
+    Assert.assertEquals(ImmutableSet.of(2), backfill.getRunChunks(failed));
+    Assert.assertTrue(backfill.finishRun(failed, false).isEmpty());
+    Assert.assertEquals(ImmutableSet.of(2), backfill.getPendingChunks());
+    Assert.assertFalse(new File(checkpoint, "run-" + failed).exists());
+    Assert.assertFalse(new File(checkpoint, "claim-2").exists());
+    String next = backfill.startRun();
+    Assert.assertEquals(ImmutableSet.of(2), backfill.getRunChunks(next));
+  }
+
+  @Test
+  public void testNumChunksChanged() throws Exception {
+    File checkpoint = new File(tmpFolder.newFolder(), "checkpoint");
+    SCD2Backfill backfill = new SCD2Backfill(checkpoint.getAbsolutePath(), 5, 1);
+    backfill.finishRun(backfill.startRun(), true);
+    // the same number of chunks with a different number of chunks per run is fine
+    new SCD2Backfill(checkpoint.getAbsolutePath(), 5, 2).startRun();
+
+    try {
+      new SCD2Backfill(checkpoint.getAbsolutePath(), 4, 1).startRun();
+      Assert.fail("The number of chunks should not change during a backfill.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testChunks() {
+    int[] counts = new int[4];
+    for (int key = 0; key < 10000; key++) {
+      int chunk = SCD2Backfill.getChunk(key, 4);
+      Assert.assertEquals(chunk, SCD2Backfill.getChunk(key, 4));
+      counts[chunk]++;
+    }
+    for (int count : counts) {
+      Assert.assertTrue(count > 2000);
+    }
+    Assert.assertTrue(SCD2Backfill.getChunk(null, 4) >= 0);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test for SCD2 cost estimator
+ */
+public class SCD2CostEstimatorTest {
+
+  @Test
+  public void testEstimate() {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))));
+
+    // key 0 has 4 versions, two of them without changes, keys 1 to 3 have a single version
+    List<StructuredRecord> records = new ArrayList<>();
+    records.add(StructuredRecord.builder(schema).set("id", 0).set("name", "a").set("startDate", 0L).build());
+    records.add(StructuredRecord.builder(schema).set("id", 0).set("name", "a").set("startDate", 10L).build());
+    records.add(StructuredRecord.builder(schema).set("id", 0).set("name", "b").set("startDate", 20L).build());
+    records.add(StructuredRecord.builder(schema).set("id", 0).set("name", "b").set("startDate", 30L).build());
+    for (int key = 1; key < 4; key++) {
+      records.add(StructuredRecord.builder(schema).set("id", key).set("name", "c").set("startDate", 0L).build());
+    }
+
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", true, false, "startDate,endDate");
+    List<Integer> keySample = Arrays.asList(5, 5, 5, 5, 2, 2, 1, 9);
+    SCD2CostEstimator.Estimate estimate = new SCD2CostEstimator(conf, 2).estimate(800L, keySample, records);
+
+    Assert.assertEquals(800L, estimate.getTotalRecords());
+    // key, start date, payload hash, id, name, start date, end date
+    Assert.assertEquals(800L * (4 + 12 + 4 + 5 + 8 + 1), estimate.getShuffleBytes());
+    Assert.assertEquals(Arrays.asList(5, 2), new ArrayList<>(estimate.getHeavyKeys().keySet()));
+    Assert.assertEquals(400L, (long) estimate.getHeavyKeys().get(5));
+    Assert.assertEquals(200L, (long) estimate.getHeavyKeys().get(2));
+    Assert.assertEquals(1, estimate.getMedianVersions());
+    Assert.assertEquals(4, estimate.getP90Versions());
+    Assert.assertEquals(4, estimate.getMaxVersions());
+    Assert.assertEquals(2d / 7d, estimate.getDedupRatio(), 0.0001d);
+    Assert.assertEquals(1, estimate.getRecommendedPartitions());
+    Assert.assertFalse(estimate.isSkewed());
+
+    // a heavy key that does not fit in a partition
+    estimate = new SCD2CostEstimator(conf, 2).estimate(100000000L, keySample, records);
+    Assert.assertEquals((100000000L * 34 - 1) / SCD2CostEstimator.TARGET_PARTITION_BYTES + 1,
+                        estimate.getRecommendedPartitions());
+    Assert.assertTrue(estimate.isSkewed());
+  }
+
+  @Test
+  public void testEmpty() {
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", true, false, null);
+    SCD2CostEstimator.Estimate estimate =
+      new SCD2CostEstimator(conf, 10).estimate(0L, Collections.emptyList(), Collections.emptyList());
+    Assert.assertEquals(0L, estimate.getShuffleBytes());
+    Assert.assertTrue(estimate.getHeavyKeys().isEmpty());
+    Assert.assertEquals(0, estimate.getMaxVersions());
+    Assert.assertEquals(1, estimate.getRecommendedPartitions());
+  }
+}
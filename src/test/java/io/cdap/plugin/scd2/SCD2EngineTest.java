@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.junit.Assert;
+import org.junit.Test;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Test for SCD2 engine
+ */
+public class SCD2EngineTest {
+
+  private static List<StructuredRecord> generate(int numKeys) {
+    SCD2Generator generator = new SCD2Generator(7L, 5, 1d, 0.2d, 0.2d, 0.1d, 4);
+    List<StructuredRecord> input = new ArrayList<>();
+    for (long key = 0; key < numKeys; key++) {
+      input.addAll(generator.generate(key));
+    }
+    Collections.shuffle(input, new Random(0L));
+    return input;
+  }
+
+  @Test
+  public void testSameAsIterator() {
+    List<StructuredRecord> input = generate(1000);
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf(SCD2Generator.KEY_FIELD, SCD2Generator.START_DATE_FIELD,
+                                               SCD2Generator.END_DATE_FIELD, true, true, "field0");
+
+    List<Tuple2<SCD2Key, StructuredRecord>> sorted = input.stream().map(
+      record -> new Tuple2<>(SCD2Key.of(record, SCD2Generator.KEY_FIELD, SCD2Generator.START_DATE_FIELD, null),
+                             record)).collect(Collectors.toList());
+    SCD2KeyComparator comparator = new SCD2KeyComparator();
+    sorted.sort((t1, t2) -> comparator.compare(t1._1(), t2._1()));
+    List<StructuredRecord> expected = new ArrayList<>();
+    new SCD2Iterator(sorted.iterator(), conf).forEachRemaining(expected::add);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      Assert.assertEquals(expected, new SCD2Engine(conf, pool).process(input));
+    } finally {
+      pool.shutdown();
+    }
+    Assert.assertEquals(expected, SCD2Engine.process(input, conf));
+  }
+
+  @Test
+  public void testSurrogateKeys() {
+    List<StructuredRecord> input = generate(1000);
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf(SCD2Generator.KEY_FIELD, SCD2Generator.START_DATE_FIELD,
+                                               SCD2Generator.END_DATE_FIELD, false, false, null, "sk", false, null);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    List<StructuredRecord> result;
+    try {
+      result = new SCD2Engine(conf, pool).process(input, SurrogateKeyGenerator.EPOCH);
+    } finally {
+      pool.shutdown();
+    }
+
+    Assert.assertEquals(input.size(), result.size());
+    Set<Long> surrogateKeys = new HashSet<>();
+    for (StructuredRecord record : result) {
+      Assert.assertTrue(surrogateKeys.add(record.get("sk")));
+    }
+  }
+
+  @Test
+  public void testSurrogateKeysOfRepeatedCalls() {
+    List<StructuredRecord> input = generate(100);
+    SCD2Plugin.Conf conf = SCD2Plugin.Conf.builder(SCD2Generator.KEY_FIELD, SCD2Generator.START_DATE_FIELD,
+                                                   SCD2Generator.END_DATE_FIELD)
+      .setSurrogateKeyField("sk")
+      .setMaxBufferedVersions(10)
+      .build();
+    Assert.assertEquals(10, conf.getMaxBufferedVersions());
+
+    // calls in quick succession share the counter of the current period, so they never generate the same keys
+    Set<Long> surrogateKeys = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      for (StructuredRecord record : SCD2Engine.process(input, conf)) {
+        Assert.assertTrue(surrogateKeys.add(record.get("sk")));
+      }
+    }
+    Assert.assertEquals(3 * input.size(), surrogateKeys.size());
+  }
+
+  @Test
+  public void testEmpty() {
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", false, false, null);
+    Assert.assertTrue(SCD2Engine.process(Collections.emptyList(), conf).isEmpty());
+  }
+}
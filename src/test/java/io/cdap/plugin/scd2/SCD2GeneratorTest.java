@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Test for SCD2 generator
+ */
+public class SCD2GeneratorTest {
+
+  @Test
+  public void testDeterministic() {
+    SCD2Generator generator = new SCD2Generator(7L, 5, 1d, 0.2d, 0.2d, 0.1d, 4);
+    SCD2Generator other = new SCD2Generator(7L, 5, 1d, 0.2d, 0.2d, 0.1d, 4);
+    for (long key = 0; key < 100; key++) {
+      Assert.assertEquals(generator.generate(key), other.generate(key));
+    }
+  }
+
+  @Test
+  public void testVersions() {
+    SCD2Generator generator = new SCD2Generator(0L, 5, 0d, 0d, 0d, 0d, 2);
+    for (long key = 0; key < 100; key++) {
+      List<StructuredRecord> records = generator.generate(key);
+      Assert.assertTrue(records.size() >= 1 && records.size() <= 5);
+
+      long prevStartDate = Long.MIN_VALUE;
+      for (int i = 0; i < records.size(); i++) {
+        StructuredRecord record = records.get(i);
+        long recordKey = record.get(SCD2Generator.KEY_FIELD);
+        Assert.assertEquals(key, recordKey);
+        long startDate = record.get(SCD2Generator.START_DATE_FIELD);
+        Assert.assertTrue(startDate > prevStartDate);
+        prevStartDate = startDate;
+
+        // only the last version comes without an end date
+        Long endDate = record.get(SCD2Generator.END_DATE_FIELD);
+        if (i == records.size() - 1) {
+          Assert.assertNull(endDate);
+        } else {
+          long nextStartDate = records.get(i + 1).get(SCD2Generator.START_DATE_FIELD);
+          Assert.assertEquals(nextStartDate - 1L, (long) endDate);
+        }
+        Assert.assertNotNull(record.get("field0"));
+        Assert.assertNotNull(record.get("field1"));
+      }
+    }
+  }
+
+  @Test
+  public void testLateArrivals() {
+    SCD2Generator generator = new SCD2Generator(0L, 5, 0d, 1d, 0d, 0d, 0);
+    for (long key = 0; key < 100; key++) {
+      List<StructuredRecord> records = generator.generate(key);
+      // all versions between the first and the last arrive late, so the first version ends before the last one
+      for (int i = 1; i < records.size(); i++) {
+        Assert.assertNull(records.get(i).get(SCD2Generator.END_DATE_FIELD));
+      }
+      if (records.size() > 1) {
+        long endDate = records.get(0).get(SCD2Generator.END_DATE_FIELD);
+        long lastStartDate = records.get(records.size() - 1).get(SCD2Generator.START_DATE_FIELD);
+        Assert.assertEquals(lastStartDate - 1L, endDate);
+      }
+    }
+  }
+
+  @Test
+  public void testSkewAndDuplicates() {
+    SCD2Generator uniform = new SCD2Generator(0L, 100, 0d, 0d, 0d, 0d, 0);
+    SCD2Generator skewed = new SCD2Generator(0L, 100, 2d, 0d, 0d, 0d, 0);
+    SCD2Generator duplicated = new SCD2Generator(0L, 100, 0d, 0d, 0.5d, 0d, 0);
+    long uniformCount = 0;
+    long skewedCount = 0;
+    long duplicatedCount = 0;
+    for (long key = 0; key < 1000; key++) {
+      uniformCount += uniform.generate(key).size();
+      skewedCount += skewed.generate(key).size();
+      List<StructuredRecord> records = duplicated.generate(key);
+      duplicatedCount += records.size();
+      for (int i = 1; i < records.size(); i++) {
+        long startDate = records.get(i).get(SCD2Generator.START_DATE_FIELD);
+        long prevStartDate = records.get(i - 1).get(SCD2Generator.START_DATE_FIELD);
+        Assert.assertTrue(startDate > prevStartDate || records.get(i).equals(records.get(i - 1)));
+      }
+    }
+
+    // with a skew of 2 most keys have a single version
+    Assert.assertTrue(skewedCount < uniformCount / 10);
+    // every record is replayed once on average
+    Assert.assertTrue(duplicatedCount > uniformCount * 3 / 2);
+  }
+}
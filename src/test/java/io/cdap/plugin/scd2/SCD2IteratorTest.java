@@ -23,6 +23,8 @@ import org.junit.Test;
 import scala.Tuple2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -102,4 +104,304 @@ public class SCD2IteratorTest {
                    .set("other", 2).set("startDate", 21000000L).set("endDate", 253402214400000000L).build());
     Assert.assertEquals(result, expected);
   }
+
+  @Test
+  public void testHeterogeneousSchemas() throws Exception {
+    Schema targetSchema = Schema.recordOf(
+      "target",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+    Schema deltaSchema = Schema.recordOf(
+      "delta",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("added", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", false, true, null);
+    Schema outputSchema = conf.getOutputSchema(Arrays.asList(targetSchema, deltaSchema));
+    Schema expectedSchema = Schema.recordOf(
+      "target",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))),
+      Schema.Field.of("added", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    Assert.assertEquals(expectedSchema, outputSchema);
+
+    List<StructuredRecord> input = new ArrayList<>();
+    input.add(StructuredRecord.builder(targetSchema).set("id", 0)
+                .set("other", 10).set("startDate", 0L).set("endDate", 10000000L).build());
+    input.add(StructuredRecord.builder(deltaSchema).set("id", 0)
+                .set("added", "a").set("startDate", 100000000L).build());
+    input.add(StructuredRecord.builder(targetSchema).set("id", 1)
+                .set("other", 1).set("startDate", 10000000L).set("endDate", 20000000L).build());
+    List<Tuple2<SCD2Key, StructuredRecord>> inputs = input.stream().map(
+      record ->
+        new Tuple2<>(new SCD2Key(record.get("id"), record.get("startDate")), record)).collect(Collectors.toList());
+
+    Iterator<StructuredRecord> iterator = new SCD2Iterator(inputs.iterator(), conf, outputSchema);
+    List<StructuredRecord> result = new ArrayList<>();
+    iterator.forEachRemaining(result::add);
+
+    List<StructuredRecord> expected = new ArrayList<>();
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0)
+                   .set("other", 10).set("startDate", 0L).set("endDate", 99999999L).build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("other", 10).set("added", "a")
+                   .set("startDate", 100000000L).set("endDate", 253402214400000000L).build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 1)
+                   .set("other", 1).set("startDate", 10000000L).set("endDate", 253402214400000000L).build());
+    Assert.assertEquals(expected, result);
+  }
+
+  @Test
+  public void testWithoutEndDate() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", false, false, null);
+    Schema outputSchema = conf.getOutputSchema(schema);
+
+    List<Tuple2<SCD2Key, StructuredRecord>> inputs = new ArrayList<>();
+    inputs.add(new Tuple2<>(new SCD2Key(0, 0L), StructuredRecord.builder(schema).set("id", 0)
+      .set("startDate", 0L).build()));
+    inputs.add(new Tuple2<>(new SCD2Key(0, 100L), StructuredRecord.builder(schema).set("id", 0)
+      .set("startDate", 100L).build()));
+
+    List<StructuredRecord> result = new ArrayList<>();
+    new SCD2Iterator(inputs.iterator(), conf).forEachRemaining(result::add);
+
+    List<StructuredRecord> expected = new ArrayList<>();
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("startDate", 0L).set("endDate", 99L).build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0)
+                   .set("startDate", 100L).set("endDate", 253402214400000000L).build());
+    Assert.assertEquals(expected, result);
+  }
+
+  @Test
+  public void testSurrogateKeys() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("sk", Schema.nullableOf(Schema.of(Schema.Type.LONG))));
+
+    List<StructuredRecord> input = new ArrayList<>();
+    // existing versions keep their surrogate key
+    input.add(StructuredRecord.builder(schema).set("id", 0).set("other", 1).set("startDate", 0L).set("sk", 5L).build());
+    input.add(StructuredRecord.builder(schema).set("id", 0).set("other", 2).set("startDate", 10L).build());
+    // duplicate of an existing version keeps the surrogate key of the existing version
+    input.add(StructuredRecord.builder(schema).set("id", 1).set("other", 1).set("startDate", 0L).set("sk", 7L).build());
+    input.add(StructuredRecord.builder(schema).set("id", 1).set("other", 1).set("startDate", 10L).build());
+    input.add(StructuredRecord.builder(schema).set("id", 1).set("other", 3).set("startDate", 20L).build());
+    List<Tuple2<SCD2Key, StructuredRecord>> inputs = input.stream().map(
+      record ->
+        new Tuple2<>(new SCD2Key(record.get("id"), record.get("startDate")), record)).collect(Collectors.toList());
+
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", true, false, "startDate", "sk",
+                                                 false, null);
+    Schema outputSchema = conf.getOutputSchema(schema);
+    // runs in the first 10 seconds after the epoch have the surrogate keys starting at 2^35, this is partition 1 out
+    // of 3, so the partition index takes 2 bits and the counter 33 bits
+    SurrogateKeyGenerator keyGenerator = new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH + 10000L, 1, 3);
+    List<StructuredRecord> result = new ArrayList<>();
+    new SCD2Iterator(inputs.iterator(), conf, outputSchema, keyGenerator).forEachRemaining(result::add);
+
+    long offset = (1L << 35) | (1L << 33);
+    List<StructuredRecord> expected = new ArrayList<>();
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("other", 1)
+                   .set("startDate", 0L).set("endDate", 9L).set("sk", 5L).build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("other", 2)
+                   .set("startDate", 10L).set("endDate", 253402214400000000L).set("sk", offset).build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 1).set("other", 1)
+                   .set("startDate", 10L).set("endDate", 19L).set("sk", 7L).build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 1).set("other", 3)
+                   .set("startDate", 20L).set("endDate", 253402214400000000L).set("sk", offset + 1L).build());
+    Assert.assertEquals(expected, result);
+  }
+
+  @Test
+  public void testCollapseReplays() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))));
+
+    List<StructuredRecord> input = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      input.add(StructuredRecord.builder(schema).set("id", 0).set("other", 1).set("startDate", 0L).build());
+      input.add(StructuredRecord.builder(schema).set("id", 0).set("other", 2).set("startDate", 10L).build());
+      input.add(StructuredRecord.builder(schema).set("id", 1).set("other", 1).set("startDate", 0L).build());
+      // same key and start date but different payloads are kept
+      input.add(StructuredRecord.builder(schema).set("id", 1).set("other", 5 + i % 2).set("startDate", 10L).build());
+    }
+    // a replay with an end date is still a replay
+    input.add(StructuredRecord.builder(schema).set("id", 0).set("other", 1).set("startDate", 0L)
+                .set("endDate", 9L).build());
+
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", false, false, null, null, true, null);
+    RecordToKeyRecordPairFunction pairFunction =
+      new RecordToKeyRecordPairFunction("id", "startDate", conf.getComputedFields());
+    List<Tuple2<SCD2Key, StructuredRecord>> inputs = new ArrayList<>();
+    for (StructuredRecord record : input) {
+      inputs.add(pairFunction.call(record));
+    }
+
+    // the result does not depend on the order the replays arrive in
+    List<StructuredRecord> result = null;
+    for (int i = 0; i < 2; i++) {
+      Collections.reverse(inputs);
+      inputs.sort((r1, r2) -> new SCD2Processor.KeyComparator().compare(r1._1(), r2._1()));
+      List<StructuredRecord> output = new ArrayList<>();
+      new SCD2Iterator(inputs.iterator(), conf).forEachRemaining(output::add);
+      if (result != null) {
+        Assert.assertEquals(result, output);
+      }
+      result = output;
+    }
+
+    Assert.assertEquals(5, result.size());
+    Assert.assertEquals(StructuredRecord.builder(schema).set("id", 0).set("other", 1)
+                          .set("startDate", 0L).set("endDate", 9L).build(), result.get(0));
+    Assert.assertEquals(StructuredRecord.builder(schema).set("id", 0).set("other", 2)
+                          .set("startDate", 10L).set("endDate", 253402214400000000L).build(), result.get(1));
+    Assert.assertEquals(StructuredRecord.builder(schema).set("id", 1).set("other", 1)
+                          .set("startDate", 0L).set("endDate", 9L).build(), result.get(2));
+  }
+
+  @Test
+  public void testCollapseReplaysWithSameHash() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))));
+    StructuredRecord a = StructuredRecord.builder(schema).set("id", 0).set("other", 1).set("startDate", 0L).build();
+    StructuredRecord b = StructuredRecord.builder(schema).set("id", 0).set("other", 2).set("startDate", 0L).build();
+    StructuredRecord replay = StructuredRecord.builder(schema).set("id", 0).set("other", 1).set("startDate", 0L)
+      .set("endDate", 9L).build();
+
+    // different payloads with the same hash can be sorted in any order, the replays are still collapsed
+    List<Tuple2<SCD2Key, StructuredRecord>> inputs = new ArrayList<>();
+    inputs.add(new Tuple2<>(new SCD2Key<>(0, 0L, 7), a));
+    inputs.add(new Tuple2<>(new SCD2Key<>(0, 0L, 7), b));
+    inputs.add(new Tuple2<>(new SCD2Key<>(0, 0L, 7), replay));
+    inputs.add(new Tuple2<>(new SCD2Key<>(0, 0L, 7), a));
+
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", false, false, null, null, true, null);
+    List<StructuredRecord> result = new ArrayList<>();
+    new SCD2Iterator(inputs.iterator(), conf).forEachRemaining(result::add);
+
+    Assert.assertEquals(2, result.size());
+    Assert.assertEquals(1, (int) result.get(0).get("other"));
+    Assert.assertEquals(2, (int) result.get(1).get("other"));
+  }
+
+  @Test
+  public void testCollapseReplaysAcrossInputs() throws Exception {
+    Schema targetSchema = Schema.recordOf(
+      "target",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("sk", Schema.of(Schema.Type.LONG)));
+    Schema deltaSchema = Schema.recordOf(
+      "delta",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("added", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", false, false, null, "sk", true, null);
+    Schema outputSchema = conf.getOutputSchema(Arrays.asList(targetSchema, deltaSchema));
+    RecordToKeyRecordPairFunction pairFunction =
+      new RecordToKeyRecordPairFunction("id", "startDate", conf.getComputedFields());
+
+    // the delta replays the change that is already in the target
+    StructuredRecord target = StructuredRecord.builder(targetSchema).set("id", 0).set("other", 1)
+      .set("startDate", 0L).set("endDate", 9L).set("sk", 5L).build();
+    StructuredRecord replay = StructuredRecord.builder(deltaSchema).set("id", 0).set("other", 1)
+      .set("startDate", 0L).build();
+    StructuredRecord change = StructuredRecord.builder(deltaSchema).set("id", 0).set("other", 2)
+      .set("startDate", 10L).build();
+    Assert.assertEquals(pairFunction.call(target)._1().getPayloadHash(),
+                        pairFunction.call(replay)._1().getPayloadHash());
+
+    long offset = 1L << 35;
+    List<StructuredRecord> expected = new ArrayList<>();
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("other", 1)
+                   .set("startDate", 0L).set("endDate", 9L).set("sk", 5L).build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("other", 2)
+                   .set("startDate", 10L).set("endDate", 253402214400000000L).set("sk", offset).build());
+
+    // the copy from the target keeps its surrogate key, whichever copy comes first
+    for (List<StructuredRecord> input : Arrays.asList(Arrays.asList(target, replay, change),
+                                                      Arrays.asList(replay, target, change))) {
+      List<Tuple2<SCD2Key, StructuredRecord>> inputs = new ArrayList<>();
+      for (StructuredRecord record : input) {
+        inputs.add(pairFunction.call(record));
+      }
+      List<StructuredRecord> result = new ArrayList<>();
+      SurrogateKeyGenerator keyGenerator = new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH + 10000L, 0, 1);
+      new SCD2Iterator(inputs.iterator(), conf, outputSchema, keyGenerator).forEachRemaining(result::add);
+      Assert.assertEquals(expected, result);
+    }
+  }
+
+  @Test
+  public void testCurrentValues() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("status", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+
+    List<StructuredRecord> input = new ArrayList<>();
+    input.add(StructuredRecord.builder(schema).set("id", 0).set("status", "A").set("startDate", 0L).build());
+    input.add(StructuredRecord.builder(schema).set("id", 0).set("status", "B").set("startDate", 10L).build());
+    // the current value is filled in from the previous version
+    input.add(StructuredRecord.builder(schema).set("id", 0).set("startDate", 20L).build());
+    input.add(StructuredRecord.builder(schema).set("id", 1).set("status", "C").set("startDate", 0L).build());
+    List<Tuple2<SCD2Key, StructuredRecord>> inputs = input.stream().map(
+      record ->
+        new Tuple2<>(new SCD2Key(record.get("id"), record.get("startDate")), record)).collect(Collectors.toList());
+
+    SCD2Plugin.Conf conf = new SCD2Plugin.Conf("id", "startDate", "endDate", false, true, null, null, false,
+                                               "status:current_status");
+    Schema outputSchema = conf.getOutputSchema(schema);
+    Assert.assertEquals(Schema.nullableOf(Schema.of(Schema.Type.STRING)),
+                        outputSchema.getField("current_status").getSchema());
+
+    List<StructuredRecord> result = new ArrayList<>();
+    new SCD2Iterator(inputs.iterator(), conf).forEachRemaining(result::add);
+
+    List<StructuredRecord> expected = new ArrayList<>();
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("status", "A").set("startDate", 0L)
+                   .set("endDate", 9L).set("current_status", "B").build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("status", "B").set("startDate", 10L)
+                   .set("endDate", 19L).set("current_status", "B").build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 0).set("status", "B").set("startDate", 20L)
+                   .set("endDate", 253402214400000000L).set("current_status", "B").build());
+    expected.add(StructuredRecord.builder(outputSchema).set("id", 1).set("status", "C").set("startDate", 0L)
+                   .set("endDate", 253402214400000000L).set("current_status", "C").build());
+    Assert.assertEquals(expected, result);
+
+    // the older versions are spilled to disk, the current values are still set on them
+    SCD2Plugin.Conf spillConf = SCD2Plugin.Conf.builder("id", "startDate", "endDate")
+      .setFillInNull(true)
+      .setCurrentValueFields("status:current_status")
+      .setMaxBufferedVersions(1)
+      .build();
+    result.clear();
+    new SCD2Iterator(inputs.iterator(), spillConf).forEachRemaining(result::add);
+    Assert.assertEquals(expected, result);
+  }
 }
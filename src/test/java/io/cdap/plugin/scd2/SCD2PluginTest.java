@@ -22,7 +22,9 @@ import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.api.dataset.table.Table;
 import io.cdap.cdap.datapipeline.DataPipelineApp;
 import io.cdap.cdap.datapipeline.SmartWorkflow;
+import io.cdap.cdap.etl.api.batch.BatchSource;
 import io.cdap.cdap.etl.api.batch.SparkCompute;
+import io.cdap.cdap.etl.api.batch.SparkSink;
 import io.cdap.cdap.etl.mock.batch.MockSink;
 import io.cdap.cdap.etl.mock.batch.MockSource;
 import io.cdap.cdap.etl.mock.test.HydratorTestBase;
@@ -44,9 +46,13 @@ import org.junit.ClassRule;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -68,7 +74,8 @@ public class SCD2PluginTest extends HydratorTestBase {
     setupBatchArtifacts(parentArtifactPipeline, DataPipelineApp.class);
 
     addPluginArtifact(NamespaceId.DEFAULT.artifact("scd2-plugins", "1.0.0"),
-                      parentArtifactPipeline, SCD2Plugin.class);
+                      parentArtifactPipeline, SCD2Plugin.class, SCD2GeneratorSource.class,
+                      SCD2CostEstimateSink.class);
   }
 
   @Test
@@ -147,4 +154,162 @@ public class SCD2PluginTest extends HydratorTestBase {
 
     Assert.assertEquals(expected, output);
   }
+
+  @Test
+  public void testSCD2WithHeterogeneousInputs() throws Exception {
+    Schema targetSchema = Schema.recordOf(
+      "target",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+      Schema.Field.of("endDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+    Schema deltaSchema = Schema.recordOf(
+      "delta",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("other", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+      Schema.Field.of("added", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put("key", "id");
+    properties.put("startDateField", "startDate");
+    properties.put("endDateField", "endDate");
+    properties.put("numPartitions", "1");
+    // the source of the current value only exists in the delta
+    properties.put("currentValueFields", "added:currentAdded");
+    String targetDataset = UUID.randomUUID().toString();
+    String deltaDataset = UUID.randomUUID().toString();
+    String outputDateset = UUID.randomUUID().toString();
+    ETLBatchConfig config = ETLBatchConfig.builder()
+                              .addStage(new ETLStage("target", MockSource.getPlugin(targetDataset, targetSchema)))
+                              .addStage(new ETLStage("delta", MockSource.getPlugin(deltaDataset, deltaSchema)))
+                              .addStage(new ETLStage("scd2", new ETLPlugin("SCD2",
+                                                                           SparkCompute.PLUGIN_TYPE, properties)))
+                              .addStage(new ETLStage("sink", MockSink.getPlugin(outputDateset)))
+                              .addConnection("target", "scd2")
+                              .addConnection("delta", "scd2")
+                              .addConnection("scd2", "sink")
+                              .build();
+
+    AppRequest<ETLBatchConfig> appRequest = new AppRequest<>(
+      new ArtifactSummary(APP_ARTIFACT_PIPELINE.getName(), APP_ARTIFACT_PIPELINE.getVersion()), config);
+    ApplicationId appId = NamespaceId.DEFAULT.app("SCD2HeterogeneousInputs");
+    ApplicationManager appManager = deployApplication(appId, appRequest);
+
+    MockSource.writeInput(getDataset(targetDataset), Collections.singletonList(
+      StructuredRecord.builder(targetSchema).set("id", 0).set("other", 10)
+        .set("startDate", 0L).set("endDate", 10000000L).build()));
+    MockSource.writeInput(getDataset(deltaDataset), Collections.singletonList(
+      StructuredRecord.builder(deltaSchema).set("id", 0).set("added", "a").set("startDate", 100000000L).build()));
+
+    WorkflowManager workflowManager = appManager.getWorkflowManager(SmartWorkflow.NAME);
+    workflowManager.startAndWaitForRun(ProgramRunStatus.COMPLETED, 3, TimeUnit.MINUTES);
+
+    DataSetManager<Table> outputManager = getDataset(outputDateset);
+    List<StructuredRecord> output = MockSink.readOutput(outputManager);
+    output.sort(Comparator.comparingLong(record -> record.<Long>get("startDate")));
+    Assert.assertEquals(2, output.size());
+
+    // the output has the fields of both inputs, the field order depends on the order of the inputs
+    StructuredRecord first = output.get(0);
+    Assert.assertNotNull(first.getSchema().getField("added"));
+    Assert.assertEquals(10, (int) first.get("other"));
+    Assert.assertNull(first.get("added"));
+    Assert.assertEquals("a", first.get("currentAdded"));
+    Assert.assertEquals(99999999L, (long) first.get("endDate"));
+    StructuredRecord second = output.get(1);
+    Assert.assertNull(second.get("other"));
+    Assert.assertEquals("a", second.get("added"));
+    Assert.assertEquals("a", second.get("currentAdded"));
+    Assert.assertEquals(253402214400000000L, (long) second.get("endDate"));
+  }
+
+  @Test
+  public void testSCD2WithGenerator() throws Exception {
+    Map<String, String> generatorProperties = new HashMap<>();
+    generatorProperties.put("numKeys", "1000");
+    generatorProperties.put("numSplits", "4");
+    generatorProperties.put("seed", "1");
+    generatorProperties.put("maxVersions", "5");
+    generatorProperties.put("versionSkew", "1");
+    generatorProperties.put("lateArrivalRatio", "0.2");
+    generatorProperties.put("nullDensity", "0.1");
+    generatorProperties.put("numFields", "3");
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put("key", SCD2Generator.KEY_FIELD);
+    properties.put("startDateField", SCD2Generator.START_DATE_FIELD);
+    properties.put("endDateField", SCD2Generator.END_DATE_FIELD);
+    properties.put("numPartitions", "2");
+    String outputDateset = UUID.randomUUID().toString();
+    ETLBatchConfig config = ETLBatchConfig.builder()
+                              .addStage(new ETLStage("source", new ETLPlugin("SCD2Generator",
+                                                                             BatchSource.PLUGIN_TYPE,
+                                                                             generatorProperties)))
+                              .addStage(new ETLStage("scd2", new ETLPlugin("SCD2",
+                                                                           SparkCompute.PLUGIN_TYPE, properties)))
+                              .addStage(new ETLStage("sink", MockSink.getPlugin(outputDateset)))
+                              .addConnection("source", "scd2")
+                              .addConnection("scd2", "sink")
+                              .build();
+
+    AppRequest<ETLBatchConfig> appRequest = new AppRequest<>(
+      new ArtifactSummary(APP_ARTIFACT_PIPELINE.getName(), APP_ARTIFACT_PIPELINE.getVersion()), config);
+    ApplicationId appId = NamespaceId.DEFAULT.app("SCD2Generator");
+    ApplicationManager appManager = deployApplication(appId, appRequest);
+
+    WorkflowManager workflowManager = appManager.getWorkflowManager(SmartWorkflow.NAME);
+    workflowManager.startAndWaitForRun(ProgramRunStatus.COMPLETED, 5, TimeUnit.MINUTES);
+
+    DataSetManager<Table> outputManager = getDataset(outputDateset);
+    List<StructuredRecord> output = MockSink.readOutput(outputManager);
+
+    SCD2Generator generator = new SCD2GeneratorSource.Conf(1000L, 4, 1L, 5, 1d, 0.2d, 0d, 0.1d, 3).getGenerator();
+    int expectedCount = 0;
+    for (long key = 0; key < 1000; key++) {
+      expectedCount += generator.generate(key).size();
+    }
+    Assert.assertEquals(expectedCount, output.size());
+
+    // every key has exactly one active version
+    Set<Long> activeKeys = new HashSet<>();
+    for (StructuredRecord record : output) {
+      long endDate = record.get(SCD2Generator.END_DATE_FIELD);
+      if (endDate == 253402214400000000L) {
+        Assert.assertTrue(activeKeys.add(record.get(SCD2Generator.KEY_FIELD)));
+      }
+    }
+    Assert.assertEquals(1000, activeKeys.size());
+  }
+
+  @Test
+  public void testCostEstimate() throws Exception {
+    Map<String, String> generatorProperties = new HashMap<>();
+    generatorProperties.put("numKeys", "1000");
+    generatorProperties.put("numSplits", "4");
+    generatorProperties.put("maxVersions", "5");
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put("key", SCD2Generator.KEY_FIELD);
+    properties.put("startDateField", SCD2Generator.START_DATE_FIELD);
+    properties.put("endDateField", SCD2Generator.END_DATE_FIELD);
+    properties.put("deduplicate", "true");
+    ETLBatchConfig config = ETLBatchConfig.builder()
+                              .addStage(new ETLStage("source", new ETLPlugin("SCD2Generator",
+                                                                             BatchSource.PLUGIN_TYPE,
+                                                                             generatorProperties)))
+                              .addStage(new ETLStage("estimate", new ETLPlugin("SCD2CostEstimate",
+                                                                               SparkSink.PLUGIN_TYPE, properties)))
+                              .addConnection("source", "estimate")
+                              .build();
+
+    AppRequest<ETLBatchConfig> appRequest = new AppRequest<>(
+      new ArtifactSummary(APP_ARTIFACT_PIPELINE.getName(), APP_ARTIFACT_PIPELINE.getVersion()), config);
+    ApplicationId appId = NamespaceId.DEFAULT.app("SCD2CostEstimate");
+    ApplicationManager appManager = deployApplication(appId, appRequest);
+
+    // the estimate is only logged, the run succeeds without any other sink
+    WorkflowManager workflowManager = appManager.getWorkflowManager(SmartWorkflow.NAME);
+    workflowManager.startAndWaitForRun(ProgramRunStatus.COMPLETED, 5, TimeUnit.MINUTES);
+  }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test for surrogate key generator
+ */
+public class SurrogateKeyGeneratorTest {
+
+  @Test
+  public void testLayout() {
+    // the keys of the last run start time are still positive
+    long lastRunStartTime = SurrogateKeyGenerator.EPOCH + ((1L << 28) - 1) * 10000L;
+    Assert.assertTrue(lastRunStartTime > TimeUnit.DAYS.toMillis(365L * 135));
+    SurrogateKeyGenerator keyGenerator = new SurrogateKeyGenerator(lastRunStartTime, 199, 200);
+    long key = keyGenerator.next();
+    Assert.assertTrue(key > 0);
+    Assert.assertEquals(key + 1, keyGenerator.next());
+
+    // runs 10 seconds apart and partitions do not share keys
+    long first = new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH, 0, 200).next();
+    Assert.assertEquals(0L, first);
+    Assert.assertEquals(1L << 35, new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH + 10000L, 0, 200).next());
+    Assert.assertEquals(1L << 27, new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH, 1, 200).next());
+    Assert.assertEquals(1L << 27, SurrogateKeyGenerator.getMaxKeysPerPartition(200));
+  }
+
+  @Test
+  public void testLimits() {
+    int numPartitions = SurrogateKeyGenerator.getMaxPartitions();
+    SurrogateKeyGenerator keyGenerator = new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH, 0, numPartitions);
+    long maxKeys = SurrogateKeyGenerator.getMaxKeysPerPartition(numPartitions);
+    Assert.assertEquals(1L << 19, maxKeys);
+    for (long i = 0; i < maxKeys; i++) {
+      keyGenerator.next();
+    }
+    try {
+      keyGenerator.next();
+      Assert.fail("The partition should run out of keys.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    try {
+      new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH, 0, numPartitions + 1);
+      Assert.fail("The number of partitions should be over the limit.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new SurrogateKeyGenerator(SurrogateKeyGenerator.EPOCH - 1L, 0, 1);
+      Assert.fail("The run start time should be out of range.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testAllocator() {
+    // the clock is in the middle of period 10, sleeping moves it ahead
+    AtomicLong clock = new AtomicLong(SurrogateKeyGenerator.EPOCH + 105000L);
+    SurrogateKeyAllocator allocator = new SurrogateKeyAllocator(clock::get, clock::addAndGet);
+
+    // the first call waits for the next period, the calls of the same period share the counter and never get ahead
+    // of the clock
+    Set<Long> keys = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      SurrogateKeyGenerator keyGenerator = allocator.newGenerator();
+      for (int j = 0; j < 3; j++) {
+        long key = keyGenerator.next();
+        Assert.assertTrue(keys.add(key));
+        Assert.assertEquals(SurrogateKeyGenerator.getTimePeriod(clock.get()), key >>> 35);
+      }
+    }
+    Assert.assertEquals(11, SurrogateKeyGenerator.getTimePeriod(clock.get()));
+
+    // a restarted allocator does not generate the keys of the previous one
+    allocator = new SurrogateKeyAllocator(clock::get, clock::addAndGet);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(keys.add(allocator.newGenerator().next()));
+    }
+    clock.addAndGet(SurrogateKeyGenerator.TIME_UNIT_MILLIS);
+    SurrogateKeyGenerator keyGenerator = allocator.newGenerator();
+    Assert.assertEquals(SurrogateKeyGenerator.getTimePeriod(clock.get()) << 35, keyGenerator.next());
+  }
+}
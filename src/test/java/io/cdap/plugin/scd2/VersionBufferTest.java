@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2020 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.scd2;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test for version buffer
+ */
+public class VersionBufferTest {
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testSpill() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("startDate", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+
+    File spillDir = tmpFolder.newFolder();
+    try (VersionBuffer buffer = new VersionBuffer(3, spillDir)) {
+      // the buffer is reused for consecutive keys, with and without spilling
+      for (int size : new int[] { 10, 2, 7 }) {
+        List<StructuredRecord> expected = new ArrayList<>();
+        for (long i = 0; i < size; i++) {
+          StructuredRecord.Builder builder = StructuredRecord.builder(schema).set("id", size);
+          buffer.add(builder.set("startDate", i));
+          expected.add(StructuredRecord.builder(schema).set("id", size).set("startDate", i).build());
+        }
+
+        // the spilled versions are read back as builders as well
+        List<StructuredRecord> actual = new ArrayList<>();
+        buffer.drain().forEachRemaining(builder -> actual.add(builder.build()));
+        Assert.assertEquals(expected, actual);
+        // the spill file is deleted once it is read
+        Assert.assertEquals(0, spillDir.list().length);
+      }
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    Schema schema = Schema.recordOf(
+      "x",
+      Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("data", Schema.of(Schema.Type.BYTES)));
+
+    File spillDir = tmpFolder.newFolder();
+    VersionBuffer buffer = new VersionBuffer(1, spillDir);
+    for (int i = 0; i < 3; i++) {
+      buffer.add(StructuredRecord.builder(schema).set("id", i).set("data", ByteBuffer.wrap(new byte[] { (byte) i })));
+    }
+    Iterator<StructuredRecord.Builder> versions = buffer.drain();
+    // bytes values are spilled as arrays
+    byte[] data = versions.next().build().get("data");
+    Assert.assertArrayEquals(new byte[] { 0 }, data);
+    Assert.assertEquals(1, spillDir.list().length);
+
+    // a buffer that is not read to the end, like the one of a failed task, deletes its spill files when it is closed
+    buffer.add(StructuredRecord.builder(schema).set("id", 3).set("data", ByteBuffer.wrap(new byte[0])));
+    buffer.add(StructuredRecord.builder(schema).set("id", 4).set("data", ByteBuffer.wrap(new byte[0])));
+    buffer.close();
+    Assert.assertEquals(0, spillDir.list().length);
+  }
+}